@@ -0,0 +1,85 @@
+package top.guoziyang.mydb.bench;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.im.BPlusTree;
+import top.guoziyang.mydb.backend.im.KeyUidStream;
+
+/**
+ * BPlusTree 的随机插入和范围查询，树在 setup 时预先插入 keys 个键
+ * searchRange 把结果收集成 List，scan 用游标逐个读出；-p rangeWidth=20000 时是整棵树的扫描，配合 -prof gc 比较分配的字节数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class BPlusTreeBenchmark {
+
+    @Param({"1", "64"})
+    public int cacheMB;
+
+    @Param({"20000"})
+    public int keys;
+
+    @Param({"1", "100"})
+    public int rangeWidth;
+
+    private TempDb db;
+    private BPlusTree tree;
+
+    @Setup
+    public void setup() throws Exception {
+        TempDb.silence();
+        db = TempDb.create((long) cacheMB << 20);
+        tree = BPlusTree.load(BPlusTree.create(db.dm), db.dm);
+        for (int i = 0; i < keys; i++) {
+            tree.insert(i, i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        tree.close();
+        db.close();
+    }
+
+    @Benchmark
+    public void insert() throws Exception {
+        long key = ThreadLocalRandom.current().nextInt(keys);
+        tree.insert(key, key);
+    }
+
+    @Benchmark
+    public List<Long> searchRange() throws Exception {
+        long key = ThreadLocalRandom.current().nextInt(keys);
+        return tree.searchRange(key, key + rangeWidth - 1);
+    }
+
+    @Benchmark
+    public long scan() throws Exception {
+        long key = ThreadLocalRandom.current().nextInt(keys);
+        KeyUidStream cursor = tree.scan(key, key + rangeWidth - 1);
+        long sum = 0;
+        while (cursor.next()) {
+            sum += cursor.uid();
+        }
+        return sum;
+    }
+}
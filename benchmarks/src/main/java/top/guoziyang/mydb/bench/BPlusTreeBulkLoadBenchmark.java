@@ -0,0 +1,93 @@
+package top.guoziyang.mydb.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.im.BPlusTree;
+import top.guoziyang.mydb.backend.im.KeyUidStream;
+
+/**
+ * 为 keys 个已排序的键建索引所用的时间：method 为 insert 时逐个 BPlusTree.insert，为 bulk 时用 BPlusTree.bulkLoad
+ * 每次测量都在一个新的数据库中进行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BPlusTreeBulkLoadBenchmark {
+
+    @Param({"512"})
+    public int cacheMB;
+
+    @Param({"1000000"})
+    public int keys;
+
+    @Param({"insert", "bulk"})
+    public String method;
+
+    private TempDb db;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        TempDb.silence();
+        db = TempDb.create((long) cacheMB << 20);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        db.close();
+    }
+
+    @Benchmark
+    public long build() throws Exception {
+        if ("bulk".equals(method)) {
+            return BPlusTree.bulkLoad(db.dm, new Sequence(keys));
+        }
+        long boot = BPlusTree.create(db.dm);
+        BPlusTree tree = BPlusTree.load(boot, db.dm);
+        for (int i = 0; i < keys; i++) {
+            tree.insert(i, i);
+        }
+        tree.close();
+        return boot;
+    }
+
+    private static class Sequence implements KeyUidStream {
+        private final int n;
+        private int i = -1;
+
+        Sequence(int n) {
+            this.n = n;
+        }
+
+        @Override
+        public boolean next() {
+            return ++i < n;
+        }
+
+        @Override
+        public long key() {
+            return i;
+        }
+
+        @Override
+        public long uid() {
+            return i;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package top.guoziyang.mydb.bench;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.im.BPlusTree;
+
+/**
+ * 多线程混合读写同一棵 BPlusTree：每次操作以 readPercent% 的概率点查，否则插入一个随机键
+ * 用 -threads 1,4,16,32 看吞吐随线程数的变化
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BPlusTreeMixedBenchmark {
+
+    @Param({"512"})
+    public int cacheMB;
+
+    @Param({"200000"})
+    public int keys;
+
+    @Param({"90"})
+    public int readPercent;
+
+    private TempDb db;
+    private BPlusTree tree;
+
+    @Setup
+    public void setup() throws Exception {
+        TempDb.silence();
+        db = TempDb.create((long) cacheMB << 20);
+        tree = BPlusTree.load(BPlusTree.create(db.dm), db.dm);
+        for (int i = 0; i < keys; i++) {
+            tree.insert(i, i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        tree.close();
+        db.close();
+    }
+
+    @Benchmark
+    public List<Long> mixed() throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long key = random.nextInt(keys);
+        if (random.nextInt(100) < readPercent) {
+            return tree.search(key);
+        }
+        tree.insert(key, key);
+        return null;
+    }
+}
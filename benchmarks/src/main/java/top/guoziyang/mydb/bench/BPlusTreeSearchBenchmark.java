@@ -0,0 +1,68 @@
+package top.guoziyang.mydb.bench;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.im.BPlusTree;
+
+/**
+ * 大树上的 BPlusTree.search 点查，树在 setup 时按顺序插入 keys 个键，整棵树都在缓存中
+ * 建树要花一段时间，可以用 -p keys=1000000 先在小一些的树上跑；配合 -prof gc 看每次查询分配的字节数
+ * balance 是树的扇出（节点最多 2*balance 个键），254 时一个节点几乎占满一页；setup 结束时把树高打印到 stderr
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BPlusTreeSearchBenchmark {
+
+    @Param({"512"})
+    public int cacheMB;
+
+    @Param({"10000000"})
+    public int keys;
+
+    @Param({"32", "128", "254"})
+    public int balance;
+
+    private TempDb db;
+    private BPlusTree tree;
+
+    @Setup
+    public void setup() throws Exception {
+        TempDb.silence();
+        db = TempDb.create((long) cacheMB << 20);
+        tree = BPlusTree.load(BPlusTree.create(db.dm, balance), db.dm);
+        for (int i = 0; i < keys; i++) {
+            tree.insert(i, i);
+        }
+        System.err.println("balance=" + balance + " depth=" + tree.depth());
+    }
+
+    @TearDown
+    public void tearDown() {
+        tree.close();
+        db.close();
+    }
+
+    @Benchmark
+    public List<Long> search() throws Exception {
+        return tree.search(ThreadLocalRandom.current().nextInt(keys));
+    }
+}
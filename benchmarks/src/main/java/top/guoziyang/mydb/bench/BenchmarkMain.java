@@ -0,0 +1,49 @@
+package top.guoziyang.mydb.bench;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 依次以每个线程数运行选中的基准测试，所有结果合并写入一个 JSON 文件，方便在版本之间对比
+ * <p>
+ * java -jar benchmarks.jar [JMH 参数] [-threads 1,4,16] [-rff jmh-result.json]
+ * 例如只跑数据管理层、缓存 1MB：java -jar benchmarks.jar DataManagerBenchmark -p cacheMB=1 -threads 1,8
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        String threads = "1,4,16";
+        String resultFile = "jmh-result.json";
+        List<String> jmhArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-threads".equals(args[i]) && i + 1 < args.length) {
+                threads = args[++i];
+            } else if ("-rff".equals(args[i]) && i + 1 < args.length) {
+                resultFile = args[++i];
+            } else {
+                jmhArgs.add(args[i]);
+            }
+        }
+        CommandLineOptions cli = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+
+        List<RunResult> results = new ArrayList<>();
+        for (String t : threads.split(",")) {
+            results.addAll(new Runner(new OptionsBuilder()
+                    .parent(cli)
+                    .threads(Integer.parseInt(t.trim()))
+                    .build()).run());
+        }
+        try (PrintStream out = new PrintStream(resultFile)) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        }
+        System.out.println("Results written to " + resultFile);
+    }
+}
@@ -0,0 +1,114 @@
+package top.guoziyang.mydb.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.common.AbstractCache;
+import top.guoziyang.mydb.backend.common.ClockPolicy;
+import top.guoziyang.mydb.backend.common.LruPolicy;
+import top.guoziyang.mydb.backend.common.ReplacePolicy;
+
+/**
+ * AbstractCache 的并发争用：随机 key 上的 get/release，用 -threads 1,4,16,32 看吞吐随线程数的变化
+ * hit 时所有 key 常驻缓存；miss 时缓存只放得下 1/4 的 key，没有替换策略时释放即移出，每次都要加载
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class CacheBenchmark {
+
+    @Param({"4096"})
+    public int keys;
+
+    @Param({"none", "clock", "lru"})
+    public String policy;
+
+    private BenchCache hot;
+    private BenchCache cold;
+
+    @Setup
+    public void setup() throws Exception {
+        // 没有替换策略时一直持有一个引用让 key 常驻，有替换策略时释放后仍然常驻
+        hot = new BenchCache(0, newPolicy(keys));
+        for (long k = 0; k < keys; k++) {
+            hot.pin(k);
+            if (hot.hasPolicy) {
+                hot.unpin(k);
+            }
+        }
+        cold = new BenchCache(keys / 4, newPolicy(keys / 4));
+    }
+
+    private ReplacePolicy newPolicy(int capacity) {
+        switch (policy) {
+            case "clock":
+                return new ClockPolicy(capacity);
+            case "lru":
+                return new LruPolicy();
+            default:
+                return null;
+        }
+    }
+
+    @Benchmark
+    public Long hit() throws Exception {
+        return access(hot);
+    }
+
+    @Benchmark
+    public Long miss() throws Exception {
+        return access(cold);
+    }
+
+    private Long access(BenchCache cache) throws Exception {
+        long key = ThreadLocalRandom.current().nextInt(keys);
+        Long v = cache.pin(key);
+        cache.unpin(key);
+        return v;
+    }
+
+    static class BenchCache extends AbstractCache<Long> {
+        final boolean hasPolicy;
+
+        BenchCache(int maxResource, ReplacePolicy policy) {
+            super(maxResource, policy);
+            this.hasPolicy = policy != null;
+        }
+
+        Long pin(long key) throws Exception {
+            return get(key);
+        }
+
+        void unpin(long key) {
+            release(key);
+        }
+
+        @Override
+        protected Long getForCache(long key) throws Exception {
+            // 模拟一次缺页加载的开销
+            long end = System.nanoTime() + 20_000;
+            while (System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+            return key;
+        }
+
+        @Override
+        protected void releaseForCache(Long obj) {}
+    }
+}
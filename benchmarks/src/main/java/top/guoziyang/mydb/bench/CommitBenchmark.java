@@ -0,0 +1,83 @@
+package top.guoziyang.mydb.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.server.Executor;
+
+/**
+ * 每秒提交的事务数：每个事务插入 rowsPerTxn 行后提交
+ * durability 为 sync 时用 begin，提交日志落盘后才返回；为 async 时用 begin async，提交日志由后台线程定期落盘
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class CommitBenchmark {
+
+    @Param({"64"})
+    public int cacheMB;
+
+    @Param({"sync", "async"})
+    public String durability;
+
+    @Param({"1", "10"})
+    public int rowsPerTxn;
+
+    private TempDb db;
+    private byte[] begin;
+    private AtomicLong nextId;
+
+    @State(Scope.Thread)
+    public static class Session {
+        Executor exe;
+
+        @Setup
+        public void setup(CommitBenchmark bench) {
+            exe = new Executor(bench.db.tbm);
+        }
+
+        @TearDown
+        public void tearDown() {
+            exe.close();
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        TempDb.silence();
+        db = TempDb.createWithTables((long) cacheMB << 20);
+        new Executor(db.tbm).execute("create table bench id int64, v string (index id)".getBytes());
+        begin = ("async".equals(durability) ? "begin async" : "begin").getBytes();
+        nextId = new AtomicLong();
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.close();
+    }
+
+    @Benchmark
+    public byte[] commit(Session s) throws Exception {
+        s.exe.execute(begin);
+        for (int i = 0; i < rowsPerTxn; i++) {
+            s.exe.execute(("insert into bench values " + nextId.getAndIncrement() + " metric").getBytes());
+        }
+        return s.exe.execute("commit".getBytes());
+    }
+}
@@ -0,0 +1,74 @@
+package top.guoziyang.mydb.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+/**
+ * DataManagerImpl 的插入和按 uid 读取，读取的数据在 setup 时预先插入
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class DataManagerBenchmark {
+
+    @Param({"1", "64"})
+    public int cacheMB;
+
+    @Param({"64", "1024"})
+    public int valueSize;
+
+    @Param({"10000"})
+    public int records;
+
+    private TempDb db;
+    private byte[] data;
+    private long[] uids;
+
+    @Setup
+    public void setup() throws Exception {
+        TempDb.silence();
+        db = TempDb.create((long) cacheMB << 20);
+        data = RandomUtil.randomBytes(valueSize);
+        uids = new long[records];
+        for (int i = 0; i < records; i++) {
+            uids[i] = db.dm.insert(TransactionManagerImpl.SUPER_XID, data);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.close();
+    }
+
+    @Benchmark
+    public long insert() throws Exception {
+        return db.dm.insert(TransactionManagerImpl.SUPER_XID, data);
+    }
+
+    @Benchmark
+    public DataItem read() throws Exception {
+        DataItem di = db.dm.read(uids[ThreadLocalRandom.current().nextInt(records)]);
+        di.release();
+        return di;
+    }
+}
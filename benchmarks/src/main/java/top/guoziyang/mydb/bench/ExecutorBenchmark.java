@@ -0,0 +1,94 @@
+package top.guoziyang.mydb.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.server.Executor;
+
+/**
+ * 端到端的 Executor.execute：SQL 解析、表管理、版本管理直到存储层
+ * 每条语句在自己的临时事务中执行，每个线程使用独立的 Executor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ExecutorBenchmark {
+
+    @Param({"64"})
+    public int cacheMB;
+
+    @Param({"16", "256"})
+    public int valueSize;
+
+    @Param({"5000"})
+    public int rows;
+
+    private TempDb db;
+    private String value;
+    private AtomicLong nextId;
+
+    @State(Scope.Thread)
+    public static class Session {
+        Executor exe;
+
+        @Setup
+        public void setup(ExecutorBenchmark bench) {
+            exe = new Executor(bench.db.tbm);
+        }
+
+        @TearDown
+        public void tearDown() {
+            exe.close();
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        TempDb.silence();
+        db = TempDb.createWithTables((long) cacheMB << 20);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < valueSize; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        value = sb.toString();
+        Executor exe = new Executor(db.tbm);
+        exe.execute("create table bench id int64, v string (index id)".getBytes());
+        for (int i = 0; i < rows; i++) {
+            exe.execute(("insert into bench values " + i + " " + value).getBytes());
+        }
+        nextId = new AtomicLong(rows);
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.close();
+    }
+
+    @Benchmark
+    public byte[] insert(Session s) throws Exception {
+        return s.exe.execute(("insert into bench values " + nextId.getAndIncrement() + " " + value).getBytes());
+    }
+
+    @Benchmark
+    public byte[] selectById(Session s) throws Exception {
+        int id = ThreadLocalRandom.current().nextInt(rows);
+        return s.exe.execute(("select * from bench where id = " + id).getBytes());
+    }
+}
@@ -0,0 +1,62 @@
+package top.guoziyang.mydb.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.dm.logger.Logger;
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+/**
+ * 组提交：并发 DataManager.insert，每次插入都等待日志落盘，比较不同提交延迟下的吞吐量
+ * 用 -threads 1,16,64 看并发线程越多时一次 force 合并的日志越多
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class GroupCommitBenchmark {
+
+    @Param({"64"})
+    public int cacheMB;
+
+    @Param({"0", "100", "500", "2000"})
+    public long commitDelayMicros;
+
+    @Param({"100"})
+    public int valueSize;
+
+    private TempDb db;
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        TempDb.silence();
+        db = TempDb.create((long) cacheMB << 20);
+        db.dm.setGroupCommit(commitDelayMicros, Logger.DEFAULT_BATCH_BYTES);
+        data = RandomUtil.randomBytes(valueSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.close();
+    }
+
+    @Benchmark
+    public long insert() throws Exception {
+        return db.dm.insert(0, data);
+    }
+}
@@ -0,0 +1,81 @@
+package top.guoziyang.mydb.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.dm.DataManager;
+import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+/**
+ * 持续插入并随机回读本线程插入过的数据，数据量远大于缓存，页面不断被驱逐和重新加载
+ * 配合 -prof gc 查看每次操作的分配字节数和 GC 次数、停顿
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class InsertBenchmark {
+
+    @Param({"8"})
+    public int cacheMB;
+
+    @Param({"200"})
+    public int valueSize;
+
+    private TempDb db;
+    private byte[] data;
+
+    @State(Scope.Thread)
+    public static class Inserted {
+        long[] uids = new long[1 << 16];
+        int size;
+
+        void add(long uid) {
+            if (size == uids.length) {
+                uids = Arrays.copyOf(uids, size * 2);
+            }
+            uids[size++] = uid;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        TempDb.silence();
+        db = TempDb.create((long) cacheMB << 20);
+        data = RandomUtil.randomBytes(valueSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.close();
+    }
+
+    @Benchmark
+    public DataItem insertAndRead(Inserted inserted) throws Exception {
+        DataManager dm = db.dm;
+        inserted.add(dm.insert(TransactionManagerImpl.SUPER_XID, data));
+        DataItem di = dm.read(inserted.uids[ThreadLocalRandom.current().nextInt(inserted.size)]);
+        if (di != null) {
+            di.release();
+        }
+        return di;
+    }
+}
@@ -0,0 +1,84 @@
+package top.guoziyang.mydb.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.dm.logger.LogEncoder;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+/**
+ * LoggerImpl 追加一条日志并落盘，多线程运行时（如 -threads 64）比较不同组提交延迟下的吞吐量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class LoggerBenchmark {
+
+    @Param({"64", "1024"})
+    public int valueSize;
+
+    @Param({"0", "500"})
+    public long commitDelayMicros;
+
+    private Path dir;
+    private Logger logger;
+    private byte[] data;
+    private LogEncoder encoder;
+
+    @Setup
+    public void setup() {
+        TempDb.silence();
+        dir = TempDb.tempDir();
+        logger = Logger.create(dir.resolve("bench").toString());
+        logger.setGroupCommit(commitDelayMicros, Logger.DEFAULT_BATCH_BYTES);
+        data = RandomUtil.randomBytes(valueSize);
+        encoder = new LogEncoder() {
+            @Override
+            public int size() {
+                return data.length;
+            }
+
+            @Override
+            public void encode(ByteBuffer buf) {
+                buf.put(data);
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        logger.close();
+        TempDb.delete(dir);
+    }
+
+    @Benchmark
+    public void log() {
+        logger.log(data);
+    }
+
+    /**
+     * 复用同一个编码器直接写入日志缓冲区，配合 -prof gc 查看追加日志本身的分配
+     */
+    @Benchmark
+    public long logEncoded() {
+        return logger.log(encoder);
+    }
+}
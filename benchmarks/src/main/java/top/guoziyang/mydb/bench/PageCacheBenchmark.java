@@ -0,0 +1,73 @@
+package top.guoziyang.mydb.bench;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+
+/**
+ * PageCacheImpl 随机读页面，cacheMB 小于文件大小时以缺页为主
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class PageCacheBenchmark {
+
+    @Param({"1", "64"})
+    public int cacheMB;
+
+    @Param({"4096"})
+    public int pages;
+
+    @Param({"false", "true"})
+    public boolean mmap;
+
+    private Path dir;
+    private PageCache pc;
+
+    @Setup
+    public void setup() {
+        TempDb.silence();
+        dir = TempDb.tempDir();
+        String path = dir.resolve("bench").toString();
+        PageCache init = PageCache.create(path, 16 << 20);
+        byte[] data = new byte[PageCache.PAGE_SIZE];
+        for (int i = 0; i < pages; i++) {
+            init.newPage(data);
+        }
+        init.close();
+        pc = PageCache.open(path, (long) cacheMB << 20, mmap);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pc.close();
+        TempDb.delete(dir);
+    }
+
+    @Benchmark
+    public byte getRelease() throws Exception {
+        Page pg = pc.getPage(ThreadLocalRandom.current().nextInt(pages) + 1);
+        byte b = pg.getData()[0];
+        pg.release();
+        return b;
+    }
+}
@@ -0,0 +1,59 @@
+package top.guoziyang.mydb.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.dm.page.PageX;
+import top.guoziyang.mydb.backend.dm.pageIndex.PageIndex;
+import top.guoziyang.mydb.backend.dm.pageIndex.PageInfo;
+
+/**
+ * 多线程并发访问同一个 PageIndex：每次操作模拟一次插入，选出页面，用掉一部分空间后放回，用满的页面当作新页面重新放回
+ * 用 -threads 1,4,16 看吞吐随线程数的变化，并发 DataManager.insert 见 DataManagerBenchmark.insert
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class PageIndexBenchmark {
+
+    @Param({"10000"})
+    public int pages;
+
+    @Param({"false", "true"})
+    public boolean preferRecent;
+
+    private PageIndex pIndex;
+
+    @Setup
+    public void setup() {
+        pIndex = new PageIndex(preferRecent);
+        for (int i = 2; i < pages; i++) {
+            pIndex.add(i, ThreadLocalRandom.current().nextInt(8000));
+        }
+    }
+
+    @Benchmark
+    public PageInfo selectAndAdd() {
+        PageInfo pi = pIndex.select(ThreadLocalRandom.current().nextInt(1, 400));
+        if (pi != null) {
+            int free = pi.freeSpace > 200 ? pi.freeSpace - 200 : PageX.MAX_FREE_SPACE;
+            pIndex.add(pi.pgno, free);
+        }
+        return pi;
+    }
+}
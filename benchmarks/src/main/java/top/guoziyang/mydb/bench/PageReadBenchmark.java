@@ -0,0 +1,94 @@
+package top.guoziyang.mydb.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+
+/**
+ * 数据库文件远大于缓存时，FileChannel 与 mmap 两种模式下随机点读单页的延迟分布（p50、p99 等）
+ * 每种模式在单独的 JVM 中运行，结束时把进程 RSS 打印到标准错误，用 -threads 1 运行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PageReadBenchmark {
+
+    @Param({"16"})
+    public int cacheMB;
+
+    @Param({"25600"})
+    public int pages;
+
+    @Param({"false", "true"})
+    public boolean mmap;
+
+    private Path dir;
+    private PageCache pc;
+
+    @Setup
+    public void setup() {
+        TempDb.silence();
+        dir = TempDb.tempDir();
+        String path = dir.resolve("bench").toString();
+        PageCache init = PageCache.create(path, 16 << 20);
+        byte[] data = new byte[PageCache.PAGE_SIZE];
+        for (int i = 1; i <= pages; i++) {
+            data[0] = (byte) i;
+            init.newPage(data);
+        }
+        init.close();
+        pc = PageCache.open(path, (long) cacheMB << 20, mmap);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.err.println("mmap=" + mmap + "  rss=" + rss());
+        pc.close();
+        TempDb.delete(dir);
+    }
+
+    @Benchmark
+    public byte read() throws Exception {
+        int pgno = ThreadLocalRandom.current().nextInt(pages) + 1;
+        Page pg = pc.getPage(pgno);
+        byte b = pg.getData()[0];
+        pg.release();
+        if (b != (byte) pgno) {
+            throw new IllegalStateException("bad page " + pgno);
+        }
+        return b;
+    }
+
+    private static String rss() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return line.substring(6).trim();
+                }
+            }
+        } catch (Exception ignored) {
+        }
+        return "n/a";
+    }
+}
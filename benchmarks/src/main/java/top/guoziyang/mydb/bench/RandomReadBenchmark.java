@@ -0,0 +1,85 @@
+package top.guoziyang.mydb.bench;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCacheImpl;
+
+/**
+ * 缓存远小于文件时多线程随机读页面，几乎每次都缺页，用 -threads 1,4,16,32 看读取的并行度
+ * 每轮结束时把这一轮的缺页数打印到标准错误。文件在操作系统页缓存中时测到的是系统调用的并行度，
+ * 要测磁盘 IOPS 需要先清空操作系统页缓存或使用大于内存的文件
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RandomReadBenchmark {
+
+    @Param({"16"})
+    public int cacheMB;
+
+    @Param({"25600"})
+    public int pages;
+
+    private Path dir;
+    private PageCacheImpl pc;
+    private long misses;
+
+    @Setup
+    public void setup() {
+        TempDb.silence();
+        dir = TempDb.tempDir();
+        String path = dir.resolve("bench").toString();
+        PageCache init = PageCache.create(path, 16 << 20);
+        byte[] data = new byte[PageCache.PAGE_SIZE];
+        for (int i = 0; i < pages; i++) {
+            init.newPage(data);
+        }
+        init.close();
+        pc = PageCache.open(path, (long) cacheMB << 20);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pc.close();
+        TempDb.delete(dir);
+    }
+
+    @Setup(Level.Iteration)
+    public void markMisses() {
+        misses = pc.getMissCount();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportMisses() {
+        System.err.println("misses=" + (pc.getMissCount() - misses));
+    }
+
+    @Benchmark
+    public byte read() throws Exception {
+        Page pg = pc.getPage(ThreadLocalRandom.current().nextInt(pages) + 1);
+        byte b = pg.getData()[0];
+        pg.release();
+        return b;
+    }
+}
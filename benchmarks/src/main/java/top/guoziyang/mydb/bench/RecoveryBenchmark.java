@@ -0,0 +1,163 @@
+package top.guoziyang.mydb.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.dm.Recover;
+import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
+import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.dm.page.PageOne;
+import top.guoziyang.mydb.backend.dm.page.PageX;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCacheImpl;
+import top.guoziyang.mydb.backend.tm.TransactionManager;
+import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+/**
+ * 崩溃恢复耗时：插入 records 条记录后崩溃，测量 Recover.recover 的耗时
+ * tail 不小于 0 时插入后先做一次检查点，再插入 tail 条记录，从检查点恢复
+ * 崩溃的数据库在 setup 时只用公开接口造好：日志完整，数据文件停留在最近一次检查点（没有检查点时只有第一页），
+ * 每次测量前复制一份，恢复会改写日志和数据文件
+ * 恢复本身是单线程发起的，用 -threads 1 运行
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RecoveryBenchmark {
+
+    @Param({"64"})
+    public int cacheMB;
+
+    @Param({"200000"})
+    public int records;
+
+    @Param({"-1", "10000"})
+    public int tail;
+
+    private Path crashed;
+    private Path dir;
+    private TransactionManager tm;
+    private Logger lg;
+    private PageCache pc;
+    private long checkpoint;
+
+    @Setup(Level.Trial)
+    public void crash() throws Exception {
+        TempDb.silence();
+        crashed = TempDb.tempDir();
+        String path = crashed.resolve("bench").toString();
+        Path scratch = crashed.resolve("scratch" + PageCacheImpl.DB_SUFFIX);
+        TransactionManager.create(path).close();
+
+        // 日志写进崩溃的数据库，页面写进一个草稿页面缓存，崩溃的数据文件是草稿在最近一次检查点时的副本
+        PageCache spc = PageCache.create(crashed.resolve("scratch").toString(), 64 << 20);
+        Logger slg = Logger.create(path);
+        spc.setLogFlusher(slg::flush);
+        spc.newPage(PageOne.InitRaw());
+        Files.copy(scratch, crashed.resolve("bench" + PageCacheImpl.DB_SUFFIX));
+
+        byte[] raw = DataItem.wrapDataItemRaw(RandomUtil.randomBytes(100));
+        int pgno = spc.newPage(PageX.initRaw());
+        pgno = insert(spc, slg, pgno, raw, records);
+        if (tail >= 0) {
+            // 检查点：先让所有脏页落盘，恢复从检查点之后开始
+            spc.flushDirtyPages();
+            long end = slg.getEnd();
+            long ckp = slg.log(Recover.checkpointLog(end, spc.getPageNumber(), end, Map.of(), Map.of()));
+            Page one = spc.getPage(1);
+            PageOne.setCheckpoint(one, ckp);
+            spc.flushPage(one);
+            one.release();
+            Files.copy(scratch, crashed.resolve("bench" + PageCacheImpl.DB_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+            insert(spc, slg, pgno, raw, tail);
+        }
+        slg.close();
+        spc.close();
+        Files.delete(scratch);
+    }
+
+    // 和 DataManager.insert 一样先写插入日志再修改页面，页面写满时新建一页
+    private static int insert(PageCache pc, Logger lg, int pgno, byte[] raw, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            Page pg = pc.getPage(pgno);
+            if (PageX.getFreeSpace(pg) < raw.length) {
+                pg.release();
+                pgno = pc.newPage(PageX.initRaw());
+                pg = pc.getPage(pgno);
+            }
+            pg.setDirty(true);
+            long lsn = lg.append(Recover.insertLog(TransactionManagerImpl.SUPER_XID, pg, raw));
+            PageX.insert(pg, raw);
+            PageX.setPageLsn(pg, lsn);
+            pg.release();
+        }
+        lg.flush();
+        return pgno;
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        TempDb.delete(crashed);
+    }
+
+    @Setup(Level.Invocation)
+    public void reopen() {
+        dir = TempDb.tempDir();
+        try (Stream<Path> files = Files.list(crashed)) {
+            for (Path f : (Iterable<Path>) files::iterator) {
+                Files.copy(f, dir.resolve(f.getFileName()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        String path = dir.resolve("bench").toString();
+        tm = TransactionManager.open(path);
+        pc = PageCache.open(path, (long) cacheMB << 20);
+        lg = Logger.open(path);
+        try {
+            Page one = pc.getPage(1);
+            checkpoint = PageOne.getCheckpoint(one);
+            one.release();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() {
+        lg.close();
+        pc.close();
+        tm.close();
+        TempDb.delete(dir);
+    }
+
+    @Benchmark
+    public void recover() {
+        Recover.recover(tm, lg, pc, checkpoint);
+    }
+}
@@ -0,0 +1,81 @@
+package top.guoziyang.mydb.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import top.guoziyang.mydb.backend.dm.DataManager;
+import top.guoziyang.mydb.backend.tbm.TableManager;
+import top.guoziyang.mydb.backend.tm.TransactionManager;
+import top.guoziyang.mydb.backend.vm.VersionManager;
+
+/**
+ * 基准测试用的临时数据库，每次建在一个新的临时目录里，close 时关闭并删除整个目录
+ */
+public class TempDb {
+
+    public final Path dir;
+    public final String path;
+    public final TransactionManager tm;
+    public final DataManager dm;
+    public VersionManager vm;
+    public TableManager tbm;
+
+    private TempDb(long cacheBytes) {
+        this.dir = tempDir();
+        this.path = dir.resolve("bench").toString();
+        this.tm = TransactionManager.create(path);
+        this.dm = DataManager.create(path, cacheBytes, tm);
+    }
+
+    /**
+     * 新建事务管理和数据管理
+     */
+    public static TempDb create(long cacheBytes) {
+        return new TempDb(cacheBytes);
+    }
+
+    /**
+     * 新建完整的一套，包括版本管理和表管理
+     */
+    public static TempDb createWithTables(long cacheBytes) {
+        TempDb db = new TempDb(cacheBytes);
+        db.vm = VersionManager.newVersionManager(db.tm, db.dm);
+        db.tbm = TableManager.create(db.path, db.vm, db.dm);
+        return db;
+    }
+
+    public void close() {
+        dm.close();
+        tm.close();
+        delete(dir);
+    }
+
+    public static Path tempDir() {
+        try {
+            return Files.createTempDirectory("mydb-bench");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void delete(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 各层在关闭和执行语句时会打印日志，测量时关掉标准输出
+     */
+    public static void silence() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
@@ -0,0 +1,90 @@
+package top.guoziyang.mydb.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+/**
+ * VersionManagerImpl 的可见性读取和删除
+ * 每个线程在一次迭代内使用同一个读已提交事务，删除的记录由同一次操作先插入，避免和其他线程争锁
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class VersionManagerBenchmark {
+
+    @Param({"64"})
+    public int cacheMB;
+
+    @Param({"64", "1024"})
+    public int valueSize;
+
+    @Param({"10000"})
+    public int records;
+
+    private TempDb db;
+    private byte[] data;
+    private long[] uids;
+
+    @State(Scope.Thread)
+    public static class Txn {
+        long xid;
+
+        @Setup(Level.Iteration)
+        public void begin(VersionManagerBenchmark bench) {
+            xid = bench.db.vm.begin(0);
+        }
+
+        @TearDown(Level.Iteration)
+        public void commit(VersionManagerBenchmark bench) throws Exception {
+            bench.db.vm.commit(xid);
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        TempDb.silence();
+        db = TempDb.createWithTables((long) cacheMB << 20);
+        data = RandomUtil.randomBytes(valueSize);
+        uids = new long[records];
+        long xid = db.vm.begin(0);
+        for (int i = 0; i < records; i++) {
+            uids[i] = db.vm.insert(xid, data);
+        }
+        db.vm.commit(xid);
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.close();
+    }
+
+    @Benchmark
+    public byte[] read(Txn txn) throws Exception {
+        return db.vm.read(txn.xid, uids[ThreadLocalRandom.current().nextInt(records)]);
+    }
+
+    @Benchmark
+    public boolean insertThenDelete(Txn txn) throws Exception {
+        long uid = db.vm.insert(txn.xid, data);
+        return db.vm.delete(txn.xid, uid);
+    }
+}
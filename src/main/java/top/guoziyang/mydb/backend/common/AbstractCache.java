@@ -1,66 +1,110 @@
 package top.guoziyang.mydb.backend.common;
 
-import java.util.HashMap;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 import top.guoziyang.mydb.common.Error;
 
 /**
  * AbstractCache 实现了一个引用计数策略的缓存
+ * <p>
+ * 按 key 的哈希把锁分成 STRIPES 段，不同段的 key 互不阻塞。
+ * 同一个 key 的并发加载只由第一个线程执行，其余线程等待它的 CompletableFuture，加载结束立即被唤醒。
+ * <p>
+ * 不指定替换策略时，引用计数归零的资源立即被写回并移出缓存；
+ * 指定替换策略时，引用计数归零的资源继续常驻，缓存满时才由策略挑选一个引用计数为 0 的资源驱逐。
  */
 public abstract class AbstractCache<T> {
+    private static final int STRIPES = 64;              // 锁分段数，必须是 2 的幂
+
     //    map[id:值]
-    private HashMap<Long, T> cache;                     // 实际缓存的数据
-    private HashMap<Long, Integer> references;          // 元素的引用个数
+    private ConcurrentHashMap<Long, T> cache;                     // 实际缓存的数据
+    private ConcurrentHashMap<Long, Integer> references;          // 元素的引用个数
     /**
-     * 只是占位作用  存在 这说明当前数据正在被加载到缓存 不存在：缓存中可能有也可能没右需要再判断
+     * 正在被加载的资源  存在 说明当前数据正在被加载到缓存，等待者挂在对应的 future 上
      */
-    private HashMap<Long, Boolean> getting;
+    private ConcurrentHashMap<Long, CompletableFuture<T>> getting;
 
     private int maxResource;                            // 缓存的最大缓存资源数
-    private int count = 0;                              // 缓存中元素的个数
-    private Lock lock;
+    private AtomicInteger count;                        // 缓存中元素的个数（包括正在加载的）
+    private Lock[] locks;                               // 分段锁，保护同一段内 key 的 cache/references/getting 状态
+    private ReplacePolicy policy;                       // 替换策略，为 null 时不保留未被引用的资源
+
+    private LongAdder hits;                             // 命中路径上不争用同一个计数器
+    private LongAdder misses;
+    private LongAdder evictions;
 
     public AbstractCache(int maxResource) {
+        this(maxResource, null);
+    }
+
+    public AbstractCache(int maxResource, ReplacePolicy policy) {
         this.maxResource = maxResource;
-        cache = new HashMap<>();
-        references = new HashMap<>();
-        getting = new HashMap<>();
-        lock = new ReentrantLock();
+        this.policy = policy;
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+        cache = new ConcurrentHashMap<>();
+        references = new ConcurrentHashMap<>();
+        getting = new ConcurrentHashMap<>();
+        count = new AtomicInteger(0);
+        locks = new Lock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
     }
 
     protected T get(long key) throws Exception {
+        Lock lock = lockFor(key);
+        CompletableFuture<T> loading;
         while (true) {
             lock.lock();
-            if (getting.containsKey(key)) {
-                // 请求的资源正在被加载到缓存中
+            loading = getting.get(key);
+            if (loading != null) {
+                // 请求的资源正在被加载到缓存中，等待加载完成后重新检查
                 lock.unlock();
                 try {
-                    Thread.sleep(1);  //休眠继续
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    continue;
+                    loading.join();
+                } catch (CompletionException | CancellationException e) {
+                    // 加载失败，重新尝试由自己加载
                 }
-                continue;  //跳出循环直到该资源没被使用
+                continue;
             }
             //资源已被加载 且缓存中存在  获取返回资源
-            if (cache.containsKey(key)) {
+            T obj = cache.get(key);
+            if (obj != null) {
                 // 资源在缓存中，直接返回
-                T obj = cache.get(key);
                 references.put(key, references.get(key) + 1);
+                if (policy != null) {
+                    policy.access(key);
+                }
+                hits.increment();
                 lock.unlock();
                 return obj;
             }
 
-            // 尝试获取该资源  判断缓存是不是满了
-            if (maxResource > 0 && count == maxResource) {
+            // 尝试获取该资源  判断缓存是不是满了，满了就尝试驱逐一个未被引用的资源
+            if (!reserve()) {
                 lock.unlock();
+                if (policy != null && evict()) {
+                    continue;
+                }
                 throw Error.CacheFullException;
             }
-            count++;
-            getting.put(key, true);
+            misses.increment();
+            loading = new CompletableFuture<>();
+            getting.put(key, loading);
             lock.unlock();
             break;
         }
@@ -71,9 +115,10 @@ public abstract class AbstractCache<T> {
         } catch (Exception e) {
             //加载失败 缓存数量回退 资源获取状态回退
             lock.lock();
-            count--;
+            count.decrementAndGet();
             getting.remove(key);
             lock.unlock();
+            loading.completeExceptionally(e);
             throw e;
         }
         //获得数据成功  更新相关状态
@@ -81,7 +126,11 @@ public abstract class AbstractCache<T> {
         getting.remove(key);
         cache.put(key, obj);
         references.put(key, 1);
+        if (policy != null) {
+            policy.access(key);
+        }
         lock.unlock();
+        loading.complete(obj);
 
         return obj;
     }
@@ -90,15 +139,16 @@ public abstract class AbstractCache<T> {
      * 强行释放一个缓存
      */
     protected void release(long key) {
+        Lock lock = lockFor(key);
         lock.lock();
         try {
             int ref = references.get(key) - 1;
-            if (ref == 0) {
+            if (ref == 0 && policy == null) {
                 T obj = cache.get(key);
                 releaseForCache(obj); //回源 写回数据库
                 references.remove(key);//缓存计数中删除
                 cache.remove(key);//从缓存中移除该数据
-                count--; //缓存计数更新
+                count.decrementAndGet(); //缓存计数更新
             } else {
                 references.put(key, ref);  //更新当前缓存的引用计数
             }
@@ -111,19 +161,186 @@ public abstract class AbstractCache<T> {
      * 关闭缓存，写回所有资源
      */
     protected void close() {
+        for (Lock lock : locks) {
+            lock.lock();
+        }
+        try {
+            for (Map.Entry<Long, T> entry : cache.entrySet()) {
+                releaseForCache(entry.getValue());
+                if (policy != null) {
+                    policy.remove(entry.getKey());
+                }
+            }
+            references.clear();
+            cache.clear();
+            count.set(0);
+        } finally {
+            for (Lock lock : locks) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 由替换策略挑选一个引用计数为 0 的资源，写回后移出缓存
+     *
+     * @return 没有可驱逐的资源时返回 false
+     */
+    private boolean evict() {
+        while (true) {
+            Long victim = policy.victim(this::isEvictable);
+            if (victim == null) {
+                return false;
+            }
+            Lock lock = lockFor(victim);
+            lock.lock();
+            try {
+                if (!isEvictable(victim)) {
+                    // 选出后又被引用或已被其他线程驱逐，重新挑选
+                    continue;
+                }
+                releaseForCache(cache.get(victim));
+                cache.remove(victim);
+                references.remove(victim);
+                policy.remove(victim);
+                count.decrementAndGet();
+                evictions.increment();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 把预先读出的资源以引用计数 0 放入缓存，只在指定了替换策略时可用
+     * 资源已在缓存中或正在加载、valid 在分段锁内返回 false、或缓存已满且没有可驱逐的资源时放弃
+     *
+     * @return 是否放入了缓存，放弃时调用方负责回收 obj
+     */
+    protected boolean preload(long key, T obj, BooleanSupplier valid) {
+        if (policy == null) {
+            return false;
+        }
+        // 先占位再加分段锁，驱逐时要获取其他段的锁，不能在持有本段锁时进行
+        if (!reserve() && !(evict() && reserve())) {
+            return false;
+        }
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            if (cache.containsKey(key) || getting.containsKey(key) || !valid.getAsBoolean()) {
+                count.decrementAndGet();
+                return false;
+            }
+            cache.put(key, obj);
+            references.put(key, 0);
+            policy.access(key);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前常驻缓存的所有 key 的快照
+     */
+    protected List<Long> residentKeys() {
+        return new ArrayList<>(cache.keySet());
+    }
+
+    /**
+     * 不增加引用计数地查看一个常驻资源，不存在时返回 null
+     */
+    protected T peek(long key) {
+        return cache.get(key);
+    }
+
+    /**
+     * 资源未被引用时对其执行 action，执行期间持有分段锁，其他线程无法引用该资源
+     *
+     * @return 资源被引用时返回 false，否则（包括资源已不在缓存中）返回 true
+     */
+    protected boolean ifUnpinned(long key, Consumer<T> action) {
+        Lock lock = lockFor(key);
         lock.lock();
         try {
-            Set<Long> keys = cache.keySet();
-            for (long key : keys) {
-                release(key);
-                references.remove(key);
-                cache.remove(key);
+            Integer ref = references.get(key);
+            if (ref == null) {
+                return true;
+            }
+            if (ref > 0) {
+                return false;
             }
+            action.accept(cache.get(key));
+            return true;
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * 把一个未被引用的常驻资源直接移出缓存，不调用 releaseForCache，内容不会被写回
+     *
+     * @return 被移出的资源，不在缓存中或正被引用时返回 null
+     */
+    protected T discard(long key) {
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            if (!isEvictable(key)) {
+                return null;
+            }
+            T obj = cache.remove(key);
+            references.remove(key);
+            if (policy != null) {
+                policy.remove(key);
+            }
+            count.decrementAndGet();
+            return obj;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isEvictable(long key) {
+        Integer ref = references.get(key);
+        return ref != null && ref == 0;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * 占用一个缓存位置，缓存已满时返回 false
+     */
+    private boolean reserve() {
+        while (true) {
+            int c = count.get();
+            if (maxResource > 0 && c >= maxResource) {
+                return false;
+            }
+            if (count.compareAndSet(c, c + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private Lock lockFor(long key) {
+        int h = Long.hashCode(key);
+        h ^= (h >>> 16);
+        return locks[h & (STRIPES - 1)];
+    }
+
 
     /**
      * 当资源不在缓存时的获取行为  等同于添加进缓存
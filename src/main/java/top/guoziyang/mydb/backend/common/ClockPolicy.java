@@ -0,0 +1,105 @@
+package top.guoziyang.mydb.backend.common;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.LongPredicate;
+
+/**
+ * CLOCK 替换策略
+ * 每个常驻 key 占用环上的一个槽位并带一个访问位，时钟指针扫过时访问位为 1 的清零放过，为 0 的即为驱逐对象
+ * <p>
+ * 命中时只置访问位，不加锁；分配、回收槽位和转动指针在策略的锁内进行。
+ * 访问位只是一个提示，置位与扫描或扩容交错时偶尔丢失一次，最多让该 key 早一圈被驱逐。
+ */
+public class ClockPolicy implements ReplacePolicy {
+
+    private long[] keys;
+    private boolean[] used;       // 槽位是否被占用
+    private volatile AtomicIntegerArray referenced; // 访问位
+    private ConcurrentHashMap<Long, Integer> slots;
+    private Deque<Integer> free;
+    private int hand;
+
+    public ClockPolicy(int capacity) {
+        capacity = Math.max(capacity, 1);
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        referenced = new AtomicIntegerArray(capacity);
+        slots = new ConcurrentHashMap<>();
+        free = new ArrayDeque<>();
+        for (int i = 0; i < capacity; i++) {
+            free.add(i);
+        }
+    }
+
+    @Override
+    public void access(long key) {
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            // 热点 key 的访问位几乎总是 1，先读后写，避免每次命中都写同一条缓存行
+            AtomicIntegerArray bits = referenced;
+            if (bits.get(slot) == 0) {
+                bits.set(slot, 1);
+            }
+            return;
+        }
+        synchronized (this) {
+            slot = slots.get(key);
+            if (slot == null) {
+                if (free.isEmpty()) {
+                    grow();
+                }
+                slot = free.poll();
+                keys[slot] = key;
+                used[slot] = true;
+                slots.put(key, slot);
+            }
+            referenced.set(slot, 1);
+        }
+    }
+
+    @Override
+    public synchronized void remove(long key) {
+        Integer slot = slots.remove(key);
+        if (slot == null) {
+            return;
+        }
+        used[slot] = false;
+        referenced.set(slot, 0);
+        free.add(slot);
+    }
+
+    @Override
+    public synchronized Long victim(LongPredicate evictable) {
+        // 转两圈：第一圈清访问位，第二圈一定能找到访问位为 0 的可驱逐 key
+        for (int i = 0; i < keys.length * 2; i++) {
+            int s = hand;
+            hand = (hand + 1) % keys.length;
+            if (!used[s] || !evictable.test(keys[s])) {
+                continue;
+            }
+            if (referenced.getAndSet(s, 0) == 1) {
+                continue;
+            }
+            return keys[s];
+        }
+        return null;
+    }
+
+    private void grow() {
+        int old = keys.length;
+        keys = Arrays.copyOf(keys, old * 2);
+        used = Arrays.copyOf(used, old * 2);
+        AtomicIntegerArray bits = new AtomicIntegerArray(old * 2);
+        for (int i = 0; i < old; i++) {
+            bits.set(i, referenced.get(i));
+        }
+        referenced = bits;
+        for (int i = old; i < old * 2; i++) {
+            free.add(i);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package top.guoziyang.mydb.backend.common;
+
+import java.util.LinkedHashMap;
+import java.util.function.LongPredicate;
+
+/**
+ * LRU 替换策略
+ * 按访问顺序排列常驻 key，从最久未访问的一端找第一个可驱逐的 key
+ * 严格的访问顺序要求每次命中都在锁内调整链表，命中路径上没有锁的是 ClockPolicy
+ */
+public class LruPolicy implements ReplacePolicy {
+
+    private LinkedHashMap<Long, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Override
+    public synchronized void access(long key) {
+        order.put(key, Boolean.TRUE);
+    }
+
+    @Override
+    public synchronized void remove(long key) {
+        order.remove(key);
+    }
+
+    @Override
+    public synchronized Long victim(LongPredicate evictable) {
+        for (Long key : order.keySet()) {
+            if (evictable.test(key)) {
+                return key;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,28 @@
+package top.guoziyang.mydb.backend.common;
+
+import java.util.function.LongPredicate;
+
+/**
+ * 缓存替换策略
+ * 只记录常驻缓存的 key，由 AbstractCache 在缓存已满时询问一个可驱逐的 key
+ */
+public interface ReplacePolicy {
+
+    /**
+     * key 被载入缓存或被命中
+     */
+    void access(long key);
+
+    /**
+     * key 已经从缓存中移除
+     */
+    void remove(long key);
+
+    /**
+     * 选出一个待驱逐的 key
+     *
+     * @param evictable 判断 key 当前是否可以被驱逐（引用计数为 0）
+     * @return 没有可驱逐的 key 时返回 null
+     */
+    Long victim(LongPredicate evictable);
+}
@@ -4,6 +4,7 @@ import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
 import top.guoziyang.mydb.backend.dm.logger.Logger;
 import top.guoziyang.mydb.backend.dm.page.PageOne;
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.dm.pageIndex.FreeSpaceMap;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
 
 /**
@@ -15,27 +16,82 @@ public interface DataManager {
 
     long insert(long xid, byte[] data) throws Exception;
 
+    /**
+     * 预留一个能放下 length 字节数据的位置并返回它的 uid，预留本身不写日志
+     * 之后必须用 insertReserved 写入同样长度的数据，写入之前读取它得到 null
+     * 用于内容中要引用还没写入的数据的场合，比如批量建立 B+ 树时节点要记录右兄弟的 uid
+     */
+    long reserve(int length) throws Exception;
+
+    /**
+     * 把数据写入 reserve 预留的位置，和 insert 一样记录一条插入日志，但不等待日志落盘
+     * 之后任何一条等待落盘的日志都会把它一起带到磁盘上
+     */
+    void insertReserved(long xid, long uid, byte[] data) throws Exception;
+
+    /**
+     * 事务结束时写入提交或撤销日志，提交日志落盘后事务才算提交
+     * 没有写过日志的事务不需要记录
+     */
+    void logCommit(long xid);
+
+    /**
+     * 标记 xid 为异步提交的事务：它的日志和提交日志只放进日志缓冲区，不等待落盘，由后台线程定期落盘
+     * 崩溃时可能丢失最近提交的事务，恢复时它们和未完成的事务一样被撤销
+     */
+    void beginAsync(long xid);
+
+    void logCommitAsync(long xid);
+
+    void logAbort(long xid);
+
+    /**
+     * 调整日志的组提交参数，见 Logger.setGroupCommit
+     */
+    void setGroupCommit(long commitDelayMicros, int batchBytes);
+
     void close();
 
     public static DataManager create(String path, long mem, TransactionManager tm) {
-        PageCache pc = PageCache.create(path, mem);
+        return create(path, mem, tm, false);
+    }
+
+    /**
+     * @param mmap 是否以内存映射的方式访问数据库文件
+     */
+    public static DataManager create(String path, long mem, TransactionManager tm, boolean mmap) {
+        PageCache pc = PageCache.create(path, mem, mmap);
         Logger lg = Logger.create(path);
 
-        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
+        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm, new FreeSpaceMap(path));
         dm.initPageOne();
+        dm.startCheckpointer();
+        dm.startLogFlusher();
         return dm;
     }
 
     public static DataManager open(String path, long mem, TransactionManager tm) {
-        PageCache pc = PageCache.open(path, mem);
+        return open(path, mem, tm, false);
+    }
+
+    /**
+     * @param mmap 是否以内存映射的方式访问数据库文件
+     */
+    public static DataManager open(String path, long mem, TransactionManager tm, boolean mmap) {
+        PageCache pc = PageCache.open(path, mem, mmap);
         Logger lg = Logger.open(path);
-        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
-        if (!dm.loadCheckPageOne()) {
-            Recover.recover(tm, lg, pc);
+        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm, new FreeSpaceMap(path));
+        boolean clean = dm.loadCheckPageOne();
+        if (!clean) {
+            Recover.recover(tm, lg, pc, PageOne.getCheckpoint(dm.pageOne));
+        }
+        if (!clean || !dm.loadPageIndex()) {
+            dm.fillPageIndex();
         }
-        dm.fillPageIndex();
         PageOne.setVcOpen(dm.pageOne);
         dm.pc.flushPage(dm.pageOne);
+        dm.startCheckpointer();
+        dm.startLogFlusher();
 
         return dm;
     }
@@ -1,34 +1,64 @@
 package top.guoziyang.mydb.backend.dm;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import top.guoziyang.mydb.backend.common.AbstractCache;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItemImpl;
+import top.guoziyang.mydb.backend.dm.logger.LogEncoder;
 import top.guoziyang.mydb.backend.dm.logger.Logger;
 import top.guoziyang.mydb.backend.dm.page.Page;
 import top.guoziyang.mydb.backend.dm.page.PageOne;
 import top.guoziyang.mydb.backend.dm.page.PageX;
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.dm.pageIndex.FreeSpaceMap;
 import top.guoziyang.mydb.backend.dm.pageIndex.PageIndex;
 import top.guoziyang.mydb.backend.dm.pageIndex.PageInfo;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
+import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
 import top.guoziyang.mydb.backend.utils.Panic;
 import top.guoziyang.mydb.backend.utils.Types;
 import top.guoziyang.mydb.common.Error;
 
 public class DataManagerImpl extends AbstractCache<DataItem> implements DataManager {
 
+    private static final long CHECKPOINT_INTERVAL = 5000; //检查点间隔 ms
+    private static final long LOG_FLUSH_INTERVAL = 200;   //异步提交的日志最多在缓冲区中停留多久 ms
+
     TransactionManager tm;
     PageCache pc;
     Logger logger;
     PageIndex pIndex;
+    FreeSpaceMap fsm;
     Page pageOne;
 
+    private Map<Long, Long> firstLsn = new ConcurrentHashMap<>();  // 事务的第一条日志的位置
+    private Set<Long> asyncXids = ConcurrentHashMap.newKeySet();  // 异步提交的事务
+    private ThreadLocal<long[]> lastXid = ThreadLocal.withInitial(() -> new long[1]);  // 当前线程上次写日志的事务
+    private long checkpointEnd;  // 上一次检查点之后的日志末尾
+
+    private CountDownLatch stopped = new CountDownLatch(1);
+    private Thread checkpointer;
+    private Thread logFlusher;
+
     public DataManagerImpl(PageCache pc, Logger logger, TransactionManager tm) {
+        this(pc, logger, tm, null);
+    }
+
+    public DataManagerImpl(PageCache pc, Logger logger, TransactionManager tm, FreeSpaceMap fsm) {
         super(0);
         this.pc = pc;
         this.logger = logger;
         this.tm = tm;
-        this.pIndex = new PageIndex();
+        this.pIndex = new PageIndex(true);  // 优先复用刚放回的页面，它们大多还在缓存中
+        this.fsm = fsm;
+        pc.setLogFlusher(logger::flush);
     }
 
     @Override
@@ -48,56 +78,247 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
             throw Error.DataTooLargeException;
         }
 
-        PageInfo pi = null;
-        for (int i = 0; i < 5; i++) {
-            pi = pIndex.select(raw.length);
-            if (pi != null) {
-                break;
-            } else {
-                int newPgno = pc.newPage(PageX.initRaw());
-                pIndex.add(newPgno, PageX.MAX_FREE_SPACE);
-            }
-        }
-        if (pi == null) {
-            throw Error.DatabaseBusyException;
-        }
-
+        PageInfo pi = selectPage(raw.length);
         Page pg = null;
         int freeSpace = 0;
         try {
             pg = pc.getPage(pi.pgno);
-            byte[] log = Recover.insertLog(xid, pg, raw);
-            logger.log(log);
+            markDirty(pg);
+            long lsn = log(xid, Recover.insertLog(xid, pg, raw));
 
             short offset = PageX.insert(pg, raw);
+            PageX.setPageLsn(pg, lsn);
 
+            // 释放之后页框可能被回收给别的页面，空闲空间要在释放之前读出
+            freeSpace = PageX.getFreeSpace(pg);
             pg.release();
             return Types.addressToUid(pi.pgno, offset);
 
         } finally {
             // 将取出的pg重新插入pIndex
-            if (pg != null) {
-                pIndex.add(pi.pgno, PageX.getFreeSpace(pg));
-            } else {
-                pIndex.add(pi.pgno, freeSpace);
+            pIndex.add(pi.pgno, freeSpace);
+        }
+    }
+
+    // 从页面索引中取出一个空闲空间足够的页面，没有时新建，调用者用完后要放回
+    private PageInfo selectPage(int length) throws Exception {
+        for (int i = 0; i < 5; i++) {
+            PageInfo pi = pIndex.select(length);
+            if (pi != null) {
+                return pi;
             }
+            int newPgno = pc.newPage(PageX.initRaw());
+            pIndex.add(newPgno, PageX.MAX_FREE_SPACE);
+        }
+        throw Error.DatabaseBusyException;
+    }
+
+    @Override
+    public long reserve(int length) throws Exception {
+        int rawLength = length + DataItem.HEADER_SIZE;
+        if (rawLength > PageX.MAX_FREE_SPACE) {
+            throw Error.DataTooLargeException;
+        }
+
+        PageInfo pi = selectPage(rawLength);
+        int freeSpace = 0;
+        try {
+            Page pg = pc.getPage(pi.pgno);
+            markDirty(pg);
+            short offset = PageX.reserve(pg, rawLength);
+            // 写入之前是非法的 DataItem，万一被读到也只会返回 null
+            DataItem.setDataItemRawInvalid(pg.getData(), offset);
+            freeSpace = PageX.getFreeSpace(pg);
+            pg.release();
+            return Types.addressToUid(pi.pgno, offset);
+        } finally {
+            pIndex.add(pi.pgno, freeSpace);
+        }
+    }
+
+    @Override
+    public void insertReserved(long xid, long uid, byte[] data) throws Exception {
+        byte[] raw = DataItem.wrapDataItemRaw(data);
+        int pgno = (int) (uid >>> 32);
+        short offset = (short) (uid & ((1L << 16) - 1));
+        Page pg = pc.getPage(pgno);
+        try {
+            markDirty(pg);
+            long lsn = log(xid, Recover.insertLog(xid, pg, offset, raw), false);
+            System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
+            PageX.setPageLsn(pg, lsn);
+        } finally {
+            pg.release();
         }
     }
 
     @Override
     public void close() {
+        stopBackground();
         super.close();
         logger.close();
 
+        if (fsm != null) {
+            // 先保存空闲空间表再标记正常关闭，中途崩溃时下次启动会重新扫描
+            fsm.save(pIndex, pc.getPageNumber(), PageOne.getVc(pageOne));
+        }
         PageOne.setVcClose(pageOne);
         pageOne.release();
         pc.close();
     }
 
-    // 为xid生成update日志
+    // 为xid生成update日志，此时页面已经修改
     public void logDataItem(long xid, DataItem di) {
-        byte[] log = Recover.updateLog(xid, di);
-        logger.log(log);
+        PageX.setPageLsn(di.page(), log(xid, Recover.updateLog(xid, di)));
+    }
+
+    @Override
+    public void logCommit(long xid) {
+        if (firstLsn.containsKey(xid)) {
+            logger.log(Recover.commitLog(xid));
+        }
+    }
+
+    @Override
+    public void beginAsync(long xid) {
+        asyncXids.add(xid);
+    }
+
+    @Override
+    public void logCommitAsync(long xid) {
+        asyncXids.remove(xid);
+        if (firstLsn.containsKey(xid)) {
+            logger.append(Recover.commitLog(xid));
+        }
+    }
+
+    // 撤销日志不等待落盘：它在这个事务释放锁之前进入日志，之后的日志落盘时它也已经落盘
+    @Override
+    public void logAbort(long xid) {
+        asyncXids.remove(xid);
+        if (firstLsn.containsKey(xid)) {
+            logger.append(Recover.abortLog(xid));
+        }
+    }
+
+    @Override
+    public void setGroupCommit(long commitDelayMicros, int batchBytes) {
+        logger.setGroupCommit(commitDelayMicros, batchBytes);
+    }
+
+    /**
+     * 写日志，记下每个事务第一条日志的位置，检查点据此决定可以丢弃哪些日志
+     * 事务的第一条日志之前先写一条开始日志，同样不等待落盘，随这条日志一起落盘
+     * 异步提交的事务的日志都不等待落盘，页面写回之前页面缓存会先让日志落盘
+     *
+     * @return 这条日志的位置
+     */
+    private long log(long xid, LogEncoder log) {
+        return log(xid, log, asyncXids.isEmpty() || !asyncXids.contains(xid));
+    }
+
+    // force 为 false 时只放进日志缓冲区
+    private long log(long xid, LogEncoder log, boolean force) {
+        long[] last = lastXid.get();
+        if (xid != TransactionManagerImpl.SUPER_XID && last[0] != xid) {
+            // 同一个线程连续为同一个事务写日志时跳过，避免每次装箱
+            if (firstLsn.putIfAbsent(xid, logger.getEnd()) == null) {
+                logger.append(Recover.beginLog(xid));
+            }
+            last[0] = xid;
+        }
+        return force ? logger.log(log) : logger.append(log);
+    }
+
+    // 在修改页面之前把页面标记为脏页，记录当前的日志末尾作为其 recLsn
+    public void markDirty(Page pg) {
+        pg.markDirty(logger.getEnd());
+    }
+
+    /**
+     * 模糊检查点：不写回页面，也不阻塞写入，脏页由页面缓存的后台线程写回
+     * 先记下当前日志末尾，再取脏页表和仍在进行的事务，三者中最早的位置作为恢复开始的位置，
+     * 连同脏页表、事务表一起写入检查点日志，检查点日志的位置记录到第一页，恢复开始的位置之前的日志段随后被删除
+     * 已结束事务的状态位在写检查点日志之前落盘，它们的提交、撤销日志可能在恢复开始的位置之前
+     */
+    void checkpoint() {
+        long end = logger.getEnd();
+        if (end == checkpointEnd) {
+            return;  // 上次检查点之后没有新的日志
+        }
+        Map<Integer, Long> dirty = pc.dirtyPages();
+        Map<Long, Long> active = activeTransactions();
+        long start = end;
+        for (long recLsn : dirty.values()) {
+            start = Math.min(start, recLsn);
+        }
+        for (long lsn : active.values()) {
+            start = Math.min(start, lsn);
+        }
+        tm.flush();
+        long ckp = logger.log(Recover.checkpointLog(start, pc.getPageNumber(), end, active, dirty));
+        PageOne.setCheckpoint(pageOne, ckp);
+        pc.flushPage(pageOne);
+        logger.checkpoint(start);
+        checkpointEnd = logger.getEnd();
+    }
+
+    // 仍在进行的事务及其第一条日志的位置，已经结束的事务顺便移除
+    private Map<Long, Long> activeTransactions() {
+        Map<Long, Long> active = new HashMap<>();
+        Iterator<Map.Entry<Long, Long>> it = firstLsn.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Long> e = it.next();
+            if (tm.isActive(e.getKey())) {
+                active.put(e.getKey(), e.getValue());
+            } else {
+                it.remove();
+            }
+        }
+        return active;
+    }
+
+    // 停止后台的检查点和日志落盘线程，测试中模拟崩溃时也要先停止它们
+    void stopBackground() {
+        stopped.countDown();
+        try {
+            if (checkpointer != null) {
+                checkpointer.join();
+            }
+            if (logFlusher != null) {
+                logFlusher.join();
+            }
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+    }
+
+    // 启动后台检查点线程
+    void startCheckpointer() {
+        checkpointer = new Thread(() -> {
+            try {
+                while (!stopped.await(CHECKPOINT_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    checkpoint();
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }, "checkpointer");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+    }
+
+    // 启动后台线程，定期让异步提交的日志落盘
+    void startLogFlusher() {
+        logFlusher = new Thread(() -> {
+            try {
+                while (!stopped.await(LOG_FLUSH_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    logger.flush();
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }, "log-flusher");
+        logFlusher.setDaemon(true);
+        logFlusher.start();
     }
 
     public void releaseDataItem(DataItem di) {
@@ -140,10 +361,19 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         return PageOne.checkVc(pageOne);
     }
 
+    // 正常关闭后的启动从空闲空间表载入pageIndex，失败时返回 false
+    boolean loadPageIndex() {
+        return fsm != null && fsm.load(pIndex, pc.getPageNumber(), PageOne.getVc(pageOne));
+    }
+
     // 初始化pageIndex
     void fillPageIndex() {
         int pageNumber = pc.getPageNumber();
         for (int i = 2; i <= pageNumber; i++) {
+            if ((i - 2) % PageCache.READ_AHEAD == 0) {
+                // 顺序扫描，提前一个窗口预读
+                pc.prefetch(i + PageCache.READ_AHEAD, PageCache.READ_AHEAD);
+            }
             Page pg = null;
             try {
                 pg = pc.getPage(i);
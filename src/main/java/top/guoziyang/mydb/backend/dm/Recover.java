@@ -1,23 +1,24 @@
 package top.guoziyang.mydb.backend.dm;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-
-import com.google.common.primitives.Bytes;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.dm.logger.LogEncoder;
 import top.guoziyang.mydb.backend.dm.logger.Logger;
 import top.guoziyang.mydb.backend.dm.page.Page;
 import top.guoziyang.mydb.backend.dm.page.PageX;
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
+import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
 import top.guoziyang.mydb.backend.utils.Panic;
-import top.guoziyang.mydb.backend.utils.Parser;
+import top.guoziyang.mydb.common.Error;
 
 /**
  * 数据恢复
@@ -25,6 +26,15 @@ import top.guoziyang.mydb.backend.utils.Parser;
  * <p>两种日志格式：
  * <p>1.更新的日志格式：[LogType] [XID] [UID] [OldRaw] [NewRaw]
  * <p>2.插入的日志格式  [LogType] [XID] [Pgno] [Offset] [Raw]
+ * <p>3.检查点的日志格式 [LogType] [StartLsn] [PageNumber] [BeginLsn] [ActiveCount] [XID] [FirstLsn]... [DirtyCount] [Pgno] [RecLsn]...
+ * <p>  检查点不写回页面，只记下仍在进行的事务和脏页表，BeginLsn 是取脏页表之前的日志末尾
+ * <p>4.开始、提交、撤销的日志格式 [LogType] [XID]，只为写过数据日志的事务记录：
+ * <p>  第一条数据日志之前写开始日志，结束时写提交或撤销日志，提交日志落盘即提交成功
+ * <p> 恢复从最近一次检查点日志记录的 StartLsn 开始，之前的日志对页面的修改都已落盘，也不属于未完成的事务
+ * <p> BeginLsn 之前的日志，页面不在脏页表中或早于该页的 recLsn 时不需要重做；
+ * <p> 其余的日志读出页面后与页尾的 PageLsn 比较，不晚于 PageLsn 的已经反映在页面上
+ * <p> 日志只读一遍，同时得到每个事务的结局：有开始日志而没有提交、撤销日志的事务是未完成的
+ * <p> 数据日志按页分组后并行处理：已完成事务的日志重做，未完成事务的日志倒序撤销
  * <p> 主要分为两部:
  * <p> 1. 重做（redo）所有已经完成的事务
  * <p>2.  撤销（undo）所有未完成的事务
@@ -33,23 +43,20 @@ public class Recover {
 
     private static final byte LOG_TYPE_INSERT = 0;  //插入日志标识
     private static final byte LOG_TYPE_UPDATE = 1;//更新日志标识
+    private static final byte LOG_TYPE_CHECKPOINT = 2;//检查点日志标识
+    private static final byte LOG_TYPE_COMMIT = 3;//提交日志标识
+    private static final byte LOG_TYPE_ABORT = 4;//撤销日志标识
+    private static final byte LOG_TYPE_BEGIN = 5;//开始日志标识
 
     private static final int REDO = 0;
     private static final int UNDO = 1;
 
-    static class InsertLogInfo {
-        long xid;
-        int pgno;
-        short offset;
-        byte[] raw;
-    }
-
-    static class UpdateLogInfo {
-        long xid;
-        int pgno;
-        short offset;
-        byte[] oldRaw;
-        byte[] newRaw;
+    static class CheckpointLogInfo {
+        long startLsn;
+        int pageNumber;
+        long beginLsn;
+        Map<Long, Long> active;     // 仍在进行的事务 -> 第一条日志的位置
+        Map<Integer, Long> dirty;   // 脏页 -> recLsn，旧格式的检查点日志没有，为 null
     }
 
     // [LogType] [XID] [Pgno] [Offset] [Raw]
@@ -60,65 +67,157 @@ public class Recover {
     private static final int OF_INSERT_OFFSET = OF_INSERT_PGNO + 4;
     private static final int OF_INSERT_RAW = OF_INSERT_OFFSET + 2;
 
+    // [LogType] [XID] [UID] [OldRaw] [NewRaw]
+
+    private static final int OF_UPDATE_UID = OF_XID + 8;
+    private static final int OF_UPDATE_RAW = OF_UPDATE_UID + 8;
+
+
     /**
-     * 将日志解析成插入日志的抽象实例对象
-     *
-     * @param log 原始数据
+     * 日志记录的各个字段直接从原始数据中读取，不再拷贝成单独的数组
      */
-    private static InsertLogInfo parseInsertLog(byte[] log) {
-        InsertLogInfo li = new InsertLogInfo();
-        li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_INSERT_PGNO));  //64位的xid
-        li.pgno = Parser.parseInt(Arrays.copyOfRange(log, OF_INSERT_PGNO, OF_INSERT_OFFSET));
-        li.offset = Parser.parseShort(Arrays.copyOfRange(log, OF_INSERT_OFFSET, OF_INSERT_RAW));
-        li.raw = Arrays.copyOfRange(log, OF_INSERT_RAW, log.length);
-        return li;
+    private static long getXid(byte[] log) {
+        return ByteBuffer.wrap(log).getLong(OF_XID);
     }
 
-    // [LogType] [XID] [UID] [OldRaw] [NewRaw]
+    private static int getPgno(byte[] log) {
+        if (isInsertLog(log)) {
+            return ByteBuffer.wrap(log).getInt(OF_INSERT_PGNO);
+        }
+        long uid = ByteBuffer.wrap(log).getLong(OF_UPDATE_UID);
+        return (int) (uid >>> 32);
+    }
 
-    private static final int OF_UPDATE_UID = OF_XID + 8;
-    private static final int OF_UPDATE_RAW = OF_UPDATE_UID + 8;
+    private static short getOffset(byte[] log) {
+        if (isInsertLog(log)) {
+            return ByteBuffer.wrap(log).getShort(OF_INSERT_OFFSET);
+        }
+        long uid = ByteBuffer.wrap(log).getLong(OF_UPDATE_UID);
+        return (short) (uid & ((1L << 16) - 1));
+    }
 
+    // [LogType] [StartLsn] [PageNumber] [BeginLsn] [ActiveCount] ... [DirtyCount] ...
+    private static final int OF_CHECKPOINT_START = OF_TYPE + 1;
+    private static final int OF_CHECKPOINT_PAGES = OF_CHECKPOINT_START + 8;
+    private static final int OF_CHECKPOINT_BEGIN = OF_CHECKPOINT_PAGES + 4;
 
-    private static UpdateLogInfo parseUpdateLog(byte[] log) {
-        UpdateLogInfo li = new UpdateLogInfo();
-        li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_UPDATE_UID));
-        long uid = Parser.parseLong(Arrays.copyOfRange(log, OF_UPDATE_UID, OF_UPDATE_RAW));
-        li.offset = (short) (uid & ((1L << 16) - 1));
-        uid >>>= 32;
-        li.pgno = (int) (uid & ((1L << 32) - 1));
-        int length = (log.length - OF_UPDATE_RAW) / 2;
-        li.oldRaw = Arrays.copyOfRange(log, OF_UPDATE_RAW, OF_UPDATE_RAW + length);
-        li.newRaw = Arrays.copyOfRange(log, OF_UPDATE_RAW + length, OF_UPDATE_RAW + length * 2);
+    private static CheckpointLogInfo parseCheckpointLog(byte[] log) {
+        CheckpointLogInfo li = new CheckpointLogInfo();
+        ByteBuffer bb = ByteBuffer.wrap(log);
+        li.startLsn = bb.getLong(OF_CHECKPOINT_START);
+        li.pageNumber = bb.getInt(OF_CHECKPOINT_PAGES);
+        li.active = new HashMap<>();
+        if (log.length == OF_CHECKPOINT_BEGIN) {
+            return li;  // 旧格式，检查点时所有脏页都已写回，但没有记录 BeginLsn，不能据此跳过日志
+        }
+        bb.position(OF_CHECKPOINT_BEGIN);
+        li.beginLsn = bb.getLong();
+        for (int n = bb.getInt(); n > 0; n--) {
+            li.active.put(bb.getLong(), bb.getLong());
+        }
+        li.dirty = new HashMap<>();
+        for (int n = bb.getInt(); n > 0; n--) {
+            li.dirty.put(bb.getInt(), bb.getLong());
+        }
         return li;
     }
 
+    /**
+     * 检查点日志
+     *
+     * @param startLsn   恢复开始的位置，之前的日志对页面的修改都已落盘，也不属于仍在进行的事务
+     * @param pageNumber 检查点时数据库文件的页数
+     * @param beginLsn   取脏页表之前的日志末尾，之后的日志修改的页面不一定在脏页表中
+     * @param active     仍在进行的事务及其第一条日志的位置
+     * @param dirty      脏页表，页号及其 recLsn
+     */
+    public static byte[] checkpointLog(long startLsn, int pageNumber, long beginLsn,
+                                       Map<Long, Long> active, Map<Integer, Long> dirty) {
+        ByteBuffer bb = ByteBuffer.allocate(OF_CHECKPOINT_BEGIN + 8 + 4 + 16 * active.size() + 4 + 12 * dirty.size());
+        bb.put(LOG_TYPE_CHECKPOINT).putLong(startLsn).putInt(pageNumber).putLong(beginLsn);
+        bb.putInt(active.size());
+        for (Entry<Long, Long> e : active.entrySet()) {
+            bb.putLong(e.getKey()).putLong(e.getValue());
+        }
+        bb.putInt(dirty.size());
+        for (Entry<Integer, Long> e : dirty.entrySet()) {
+            bb.putInt(e.getKey()).putLong(e.getValue());
+        }
+        return bb.array();
+    }
+
+    // [LogType] [XID]
+    public static byte[] beginLog(long xid) {
+        return outcomeLog(LOG_TYPE_BEGIN, xid);
+    }
+
+    public static byte[] commitLog(long xid) {
+        return outcomeLog(LOG_TYPE_COMMIT, xid);
+    }
+
+    public static byte[] abortLog(long xid) {
+        return outcomeLog(LOG_TYPE_ABORT, xid);
+    }
+
+    private static byte[] outcomeLog(byte type, long xid) {
+        return ByteBuffer.allocate(OF_XID + 8).put(type).putLong(xid).array();
+    }
+
     /**
      * 恢复数据
+     *
+     * @param checkpoint 第一页记录的最近一次检查点日志的位置，0 表示没有检查点
      */
-    public static void recover(TransactionManager tm, Logger lg, PageCache pc) {
+    public static void recover(TransactionManager tm, Logger lg, PageCache pc, long checkpoint) {
         System.out.println("Recovering...");
-        //todo 读取全部日志 从第一条开始恢复？？可能不太对
-        lg.rewind();  //初始化日志读取指针
+        long start = 0;
         int maxPgno = 0;  //初始化页面缓存的大小
-        //只用来获得最大页面数？？
+        CheckpointLogInfo ci = null;
+        if (checkpoint > 0) {
+            lg.seek(checkpoint);
+            byte[] log = lg.next();
+            // 第一页上的位置可能已经过期，读到的不是检查点日志时从最老的日志开始
+            if (log != null && isCheckpointLog(log)) {
+                ci = parseCheckpointLog(log);
+                start = ci.startLsn;
+                maxPgno = ci.pageNumber;
+            }
+        }
+        //只读一遍日志：数据日志按页分组，同时记下开始、提交、撤销日志中每个事务的结局
+        //检查点时仍在进行的事务先当作只有开始日志，之后读到提交、撤销日志时覆盖
+        Map<Long, Byte> outcomes = new HashMap<>();
+        if (ci != null) {
+            for (long xid : ci.active.keySet()) {
+                outcomes.put(xid, LOG_TYPE_BEGIN);
+            }
+        }
+        Map<Integer, PageLogs> pageLogs = new HashMap<>();
+        lg.seek(start);  //初始化日志读取指针
         while (true) {
             byte[] log = lg.next();
             if (log == null) break;
-            int pgno;
-            if (isInsertLog(log)) { //判断是否为插入日志
-                //解析插入日志
-                InsertLogInfo li = parseInsertLog(log);
-                pgno = li.pgno;
-            } else {
-                //解析更新日志
-                UpdateLogInfo li = parseUpdateLog(log);
-                pgno = li.pgno;
+            if (isCheckpointLog(log)) continue;
+            if (log[OF_TYPE] == LOG_TYPE_BEGIN) {
+                outcomes.putIfAbsent(getXid(log), LOG_TYPE_BEGIN);
+                continue;
+            }
+            if (isOutcomeLog(log)) {
+                outcomes.put(getXid(log), log[OF_TYPE]);
+                continue;
             }
+            int pgno = getPgno(log);
             //更新最大页面数
             if (pgno > maxPgno) {
                 maxPgno = pgno;
             }
+            pageLogs.computeIfAbsent(pgno, k -> new PageLogs()).add(lg.lastLsn(), getXid(log));
+        }
+        //只有开始日志的事务需要撤销；超级事务总是已提交的
+        Map<Long, Boolean> active = new HashMap<>();
+        for (PageLogs pl : pageLogs.values()) {
+            for (int i = 0; i < pl.size; i++) {
+                active.computeIfAbsent(pl.xids[i], xid -> isActive(tm, outcomes, xid));
+            }
         }
         if (maxPgno == 0) {
             maxPgno = 1;
@@ -128,176 +227,302 @@ public class Recover {
          */
         pc.truncateByBgno(maxPgno);
         System.out.println("Truncate to " + maxPgno + " pages.");
-        //1.重做日志
-        redoTranscations(tm, lg, pc);
-        System.out.println("Redo Transactions Over.");
-        //2.撤销日志
-        undoTranscations(tm, lg, pc);
-        System.out.println("Undo Transactions Over.");
+        //1.按页重做已完成事务的日志，再倒序撤销未完成事务的日志
+        recoverPages(lg, pc, pageLogs, active, ci);
+        //2.恢复中修改过的页面统一写回一次
+        pc.flushDirtyPages();
+        //3.未完成的事务取消；状态位是延迟落盘的，按日志中的结局补上
+        //  未完成的事务补写撤销日志，再次崩溃时它们不会被当作未完成的事务再撤销一遍，覆盖之后其他事务的修改
+        for (Entry<Long, Boolean> entry : active.entrySet()) {
+            if (entry.getValue()) {
+                outcomes.put(entry.getKey(), LOG_TYPE_BEGIN);
+            }
+        }
+        for (Entry<Long, Byte> entry : outcomes.entrySet()) {
+            long xid = entry.getKey();
+            if (entry.getValue() == LOG_TYPE_COMMIT) {
+                if (!tm.isCommitted(xid)) {
+                    tm.commit(xid);
+                }
+                continue;
+            }
+            if (entry.getValue() == LOG_TYPE_BEGIN) {
+                lg.append(abortLog(xid));
+            }
+            if (!tm.isAborted(xid)) {
+                tm.abort(xid);
+            }
+        }
+        lg.flush();
+        tm.flush();
 
         System.out.println("Recovery Over.");
     }
 
-    //重做日志
-    private static void redoTranscations(TransactionManager tm, Logger lg, PageCache pc) {
-        //初始化 日志文件的读取指针
-        lg.rewind();
-        while (true) {
-            //1.读取下一条日志
-            byte[] log = lg.next();
-            if (log == null) break;
-            //2.判断日志类型
-            if (isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                long xid = li.xid;
-                //3. 通过事务管理器判断事务状态
-                if (!tm.isActive(xid)) {
-                    //3.1 事务已经完成 执行重做
-                    doInsertLog(pc, log, REDO);
-                }
-            } else {
-                UpdateLogInfo xi = parseUpdateLog(log);
-                long xid = xi.xid;
-                if (!tm.isActive(xid)) {
-                    doUpdateLog(pc, log, REDO);
-                }
+    private static boolean isActive(TransactionManager tm, Map<Long, Byte> outcomes, long xid) {
+        if (xid == TransactionManagerImpl.SUPER_XID) {
+            return false;
+        }
+        Byte outcome = outcomes.get(xid);
+        if (outcome == null) {
+            // 没有开始日志，是加入开始、提交、撤销日志之前写下的日志，只能看事务管理器中的状态
+            return tm.isActive(xid);
+        }
+        return outcome == LOG_TYPE_BEGIN;
+    }
+
+    // 一页的数据日志的位置及其事务，按日志顺序排列；日志内容不常驻内存，重放这一页时再按位置读出
+    private static class PageLogs {
+        long[] lsns = new long[4];
+        long[] xids = new long[4];
+        int size;
+
+        void add(long lsn, long xid) {
+            if (size == lsns.length) {
+                lsns = Arrays.copyOf(lsns, size * 2);
+                xids = Arrays.copyOf(xids, size * 2);
             }
+            lsns[size] = lsn;
+            xids[size] = xid;
+            size++;
         }
     }
 
     /**
-     * 倒叙撤销事务（undo）
-     * @param tm
-     * @param lg
-     * @param pc
+     * 重做和撤销都按页进行
+     * 不同页面之间的日志互不影响，按页划分后交给 fork-join 线程池并行处理，
+     * 同一页内先按日志顺序重做已完成事务的日志，再倒序撤销未完成事务的日志
+     *
      */
-    private static void undoTranscations(TransactionManager tm, Logger lg, PageCache pc) {
-        Map<Long, List<byte[]>> logCache = new HashMap<>();
-        lg.rewind();
-        while (true) {
-            byte[] log = lg.next();
-            if (log == null) break;
-            if (isInsertLog(log)) { //判断是否位插入日志
-                //解析日志
-                InsertLogInfo li = parseInsertLog(log);
-                long xid = li.xid;
-                if (tm.isActive(xid)) {
-                    //读取事务日志 判断该事务是否正在进行
-                    if (!logCache.containsKey(xid)) {
-                        logCache.put(xid, new ArrayList<>());
-                    }
-                    logCache.get(xid).add(log);
-                }
-            } else {
-                UpdateLogInfo xi = parseUpdateLog(log);
-                long xid = xi.xid;
-                if (tm.isActive(xid)) {
-                    if (!logCache.containsKey(xid)) {
-                        logCache.put(xid, new ArrayList<>());
-                    }
-                    logCache.get(xid).add(log);
+    private static void recoverPages(Logger lg, PageCache pc, Map<Integer, PageLogs> pageLogs, Map<Long, Boolean> active,
+                                     CheckpointLogInfo ci) {
+        int[] pgnos = new int[pageLogs.size()];
+        int i = 0;
+        for (int pgno : pageLogs.keySet()) {
+            pgnos[i++] = pgno;
+        }
+        ForkJoinPool.commonPool().invoke(new RecoverTask(lg, pc, pageLogs, active, ci, pgnos, 0, pgnos.length));
+    }
+
+    private static class RecoverTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int PAGES_PER_TASK = 16;
+
+        private final Logger lg;
+        private final PageCache pc;
+        private final Map<Integer, PageLogs> pageLogs;
+        private final Map<Long, Boolean> active;
+        private final CheckpointLogInfo ci;
+        private final int[] pgnos;
+        private final int from, to;
+
+        RecoverTask(Logger lg, PageCache pc, Map<Integer, PageLogs> pageLogs, Map<Long, Boolean> active,
+                    CheckpointLogInfo ci, int[] pgnos, int from, int to) {
+            this.lg = lg;
+            this.pc = pc;
+            this.pageLogs = pageLogs;
+            this.active = active;
+            this.ci = ci;
+            this.pgnos = pgnos;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PAGES_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    recoverPage(lg, pc, pgnos[i], pageLogs.get(pgnos[i]), active, ci);
                 }
+                return;
             }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RecoverTask(lg, pc, pageLogs, active, ci, pgnos, from, mid),
+                    new RecoverTask(lg, pc, pageLogs, active, ci, pgnos, mid, to));
         }
+    }
 
-        // 对所有active log进行倒序undo
-        for (Entry<Long, List<byte[]>> entry : logCache.entrySet()) {
-            List<byte[]> logs = entry.getValue();
-            for (int i = logs.size() - 1; i >= 0; i--) {
-                byte[] log = logs.get(i);
-                if (isInsertLog(log)) {
-                    doInsertLog(pc, log, UNDO);
-                } else {
-                    doUpdateLog(pc, log, UNDO);
+    /**
+     * 一页只取一次，脏页表表明所有修改都已落盘、也没有需要撤销的日志时不读这一页
+     * 重做跳过不晚于 PageLsn 的日志，重做后把 PageLsn 推进到最后一条重做的日志；撤销不改变 PageLsn
+     * 需要重放的日志在这时才按位置从日志文件读出
+     */
+    private static void recoverPage(Logger lg, PageCache pc, int pgno, PageLogs pl, Map<Long, Boolean> active,
+                                    CheckpointLogInfo ci) {
+        int n = pl.size;
+        boolean[] redo = new boolean[n];
+        boolean touch = false;
+        for (int i = 0; i < n; i++) {
+            boolean loser = active.get(pl.xids[i]);
+            redo[i] = !loser && mayNeedRedo(ci, pgno, pl.lsns[i]);
+            touch |= loser || redo[i];
+        }
+        if (!touch) {
+            return;
+        }
+        Page pg = getPage(pc, pgno);
+        try {
+            long pageLsn = PageX.getPageLsn(pg);
+            long redone = pageLsn;
+            for (int i = 0; i < n; i++) {
+                if (redo[i] && pl.lsns[i] > pageLsn) {
+                    doLog(pg, readLog(lg, pl.lsns[i]), REDO);
+                    redone = pl.lsns[i];
+                }
+            }
+            if (redone > pageLsn) {
+                PageX.setPageLsn(pg, redone);
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                if (active.get(pl.xids[i])) {
+                    doLog(pg, readLog(lg, pl.lsns[i]), UNDO);
                 }
             }
-            //取消事务
-            tm.abort(entry.getKey());
+        } finally {
+            pg.release();
+        }
+    }
+
+    // 第一遍扫描时读到过的日志，再次读出不应失败
+    private static byte[] readLog(Logger lg, long lsn) {
+        byte[] log = lg.read(lsn);
+        if (log == null) {
+            Panic.panic(Error.BadLogFileException);
+        }
+        return log;
+    }
+
+    // 检查点开始之前的日志，页面不在脏页表中或早于该页的 recLsn 时，修改在检查点时已经落盘
+    private static boolean mayNeedRedo(CheckpointLogInfo ci, int pgno, long lsn) {
+        if (ci == null || ci.dirty == null || lsn >= ci.beginLsn) {
+            return true;
+        }
+        Long recLsn = ci.dirty.get(pgno);
+        return recLsn != null && lsn >= recLsn;
+    }
+
+    private static void doLog(Page pg, byte[] log, int flag) {
+        if (isInsertLog(log)) {
+            doInsertLog(pg, log, flag);
+        } else {
+            doUpdateLog(pg, log, flag);
         }
     }
 
+    private static Page getPage(PageCache pc, int pgno) {
+        Page pg = null;
+        //缓存中获得要被修改的页 底层：有就直接获取 没有就从本地实际数据加载到缓存中去
+        try {
+            pg = pc.getPage(pgno);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        return pg;
+    }
+
     private static boolean isInsertLog(byte[] log) {
         return log[0] == LOG_TYPE_INSERT;
     }
 
+    private static boolean isCheckpointLog(byte[] log) {
+        return log[0] == LOG_TYPE_CHECKPOINT;
+    }
+
+    private static boolean isOutcomeLog(byte[] log) {
+        return log[0] == LOG_TYPE_COMMIT || log[0] == LOG_TYPE_ABORT;
+    }
+
+
+    /**
+     * 更新日志和插入日志直接编码进日志缓冲区，每个线程复用一个编码器，写日志时不再拼接数组
+     */
+    private static final ThreadLocal<UpdateLogEncoder> UPDATE_ENCODER = ThreadLocal.withInitial(UpdateLogEncoder::new);
+    private static final ThreadLocal<InsertLogEncoder> INSERT_ENCODER = ThreadLocal.withInitial(InsertLogEncoder::new);
+
+    private static class UpdateLogEncoder implements LogEncoder {
+        long xid;
+        long uid;
+        byte[] oldRaw;
+        SubArray newRaw;
 
-    public static byte[] updateLog(long xid, DataItem di) {
-        byte[] logType = {LOG_TYPE_UPDATE};
-        byte[] xidRaw = Parser.long2Byte(xid);
-        byte[] uidRaw = Parser.long2Byte(di.getUid());
-        byte[] oldRaw = di.getOldRaw();
-        SubArray raw = di.getRaw();
-        byte[] newRaw = Arrays.copyOfRange(raw.raw, raw.start, raw.end);
-        return Bytes.concat(logType, xidRaw, uidRaw, oldRaw, newRaw);
+        @Override
+        public int size() {
+            return OF_UPDATE_RAW + oldRaw.length + newRaw.end - newRaw.start;
+        }
+
+        @Override
+        public void encode(ByteBuffer buf) {
+            buf.put(LOG_TYPE_UPDATE).putLong(xid).putLong(uid)
+                    .put(oldRaw).put(newRaw.raw, newRaw.start, newRaw.end - newRaw.start);
+            oldRaw = null;
+            newRaw = null;
+        }
+    }
+
+    public static LogEncoder updateLog(long xid, DataItem di) {
+        UpdateLogEncoder enc = UPDATE_ENCODER.get();
+        enc.xid = xid;
+        enc.uid = di.getUid();
+        enc.oldRaw = di.getOldRaw();
+        enc.newRaw = di.getRaw();
+        return enc;
     }
 
     /**
      * 更新类型的日志的重做或者撤销
+     * 日志中 [OldRaw] [NewRaw] 长度相同，重做时写入新数据，撤销时写入老数据
      */
-    private static void doUpdateLog(PageCache pc, byte[] log, int flag) {
+    private static void doUpdateLog(Page pg, byte[] log, int flag) {
+        int length = (log.length - OF_UPDATE_RAW) / 2;
+        int rawStart = flag == REDO ? OF_UPDATE_RAW + length : OF_UPDATE_RAW;
+        PageX.recoverUpdate(pg, log, rawStart, length, getOffset(log));
+    }
+
+
+    private static class InsertLogEncoder implements LogEncoder {
+        long xid;
         int pgno;
         short offset;
         byte[] raw;
-        if (flag == REDO) { //判断类型
-            //1.解析日志为对象实列
-            UpdateLogInfo xi = parseUpdateLog(log);
-            pgno = xi.pgno;
-            offset = xi.offset;
-            raw = xi.newRaw; //重做时记录新数据
-        } else {
-            UpdateLogInfo xi = parseUpdateLog(log);
-            pgno = xi.pgno;
-            offset = xi.offset;
-            raw = xi.oldRaw;//撤销时记录老数据
-        }
-        Page pg = null;
-        //缓存中获得要被修改的页
-        try {
-            pg = pc.getPage(pgno);
-        } catch (Exception e) {
-            Panic.panic(e);
+
+        @Override
+        public int size() {
+            return OF_INSERT_RAW + raw.length;
         }
-        try {
-            PageX.recoverUpdate(pg, raw, offset);
-        } finally {
-            pg.release();  //释放的同时将引用数为零的缓存写回了磁盘
+
+        @Override
+        public void encode(ByteBuffer buf) {
+            buf.put(LOG_TYPE_INSERT).putLong(xid).putInt(pgno).putShort(offset).put(raw);
+            raw = null;
         }
     }
 
+    public static LogEncoder insertLog(long xid, Page pg, byte[] raw) {
+        return insertLog(xid, pg, PageX.getFSO(pg), raw);
+    }
 
-    public static byte[] insertLog(long xid, Page pg, byte[] raw) {
-        byte[] logTypeRaw = {LOG_TYPE_INSERT};
-        byte[] xidRaw = Parser.long2Byte(xid);
-        byte[] pgnoRaw = Parser.int2Byte(pg.getPageNumber());
-        byte[] offsetRaw = Parser.short2Byte(PageX.getFSO(pg));
-        return Bytes.concat(logTypeRaw, xidRaw, pgnoRaw, offsetRaw, raw);
+    // 写入预先保留的位置时，插入位置不是页面当前的空闲位置
+    public static LogEncoder insertLog(long xid, Page pg, short offset, byte[] raw) {
+        InsertLogEncoder enc = INSERT_ENCODER.get();
+        enc.xid = xid;
+        enc.pgno = pg.getPageNumber();
+        enc.offset = offset;
+        enc.raw = raw;
+        return enc;
     }
 
     /**
      * 插入类型日志的重做(redo)或者撤销（undo）
      *
-     * @param pc   缓存
+     * @param pg   日志修改的页面
      * @param log  日志原始数据
      * @param flag 两种类型的标志  0：redo 1:undo
      */
-    private static void doInsertLog(PageCache pc, byte[] log, int flag) {
-        //1.解析数据
-        InsertLogInfo li = parseInsertLog(log);
-        Page pg = null;
-        try {
-            //2.从缓存中获得当前页 底层：有就直接获取 没有就从本地实际数据加载到缓存中去
-            pg = pc.getPage(li.pgno);
-        } catch (Exception e) {
-            Panic.panic(e);
-        }
-        try {
-            if (flag == UNDO) {
-                //todo 使用dataItem 删除。将该条 DataItem 的有效位设置为无效，来进行逻辑删除
-                DataItem.setDataItemRawInvalid(li.raw);
-            }
-            PageX.recoverInsert(pg, li.raw, li.offset);
-        } finally {
-            pg.release();
+    private static void doInsertLog(Page pg, byte[] log, int flag) {
+        if (flag == UNDO) {
+            //todo 使用dataItem 删除。将该条 DataItem 的有效位设置为无效，来进行逻辑删除
+            DataItem.setDataItemRawInvalid(log, OF_INSERT_RAW);
         }
+        PageX.recoverInsert(pg, log, OF_INSERT_RAW, log.length - OF_INSERT_RAW, getOffset(log));
     }
 }
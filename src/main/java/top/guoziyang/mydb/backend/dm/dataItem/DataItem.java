@@ -14,6 +14,8 @@ import top.guoziyang.mydb.backend.utils.Types;
  *DateItem 是DM层向上层提供的数据抽象。上层通过地址，向Dm请求对应的DataItem 在获取到其中的数据
  */
 public interface DataItem {
+    int HEADER_SIZE = DataItemImpl.OF_DATA;  // [ValidFlag] [DataSize] 的长度
+
     SubArray data();
     
     void before();
@@ -43,10 +45,15 @@ public interface DataItem {
         short size = Parser.parseShort(Arrays.copyOfRange(raw, offset+DataItemImpl.OF_SIZE, offset+DataItemImpl.OF_DATA));
         short length = (short)(size + DataItemImpl.OF_DATA);
         long uid = Types.addressToUid(pg.getPageNumber(), offset);
-        return new DataItemImpl(new SubArray(raw, offset, offset+length), new byte[length], pg, uid, dm);
+        return new DataItemImpl(new SubArray(raw, offset, offset+length), null, pg, uid, dm);
     }
 
     public static void setDataItemRawInvalid(byte[] raw) {
-        raw[DataItemImpl.OF_VALID] = (byte)1;
+        setDataItemRawInvalid(raw, 0);
+    }
+
+    // raw 从 start 开始是一个 DataItem
+    public static void setDataItemRawInvalid(byte[] raw, int start) {
+        raw[start + DataItemImpl.OF_VALID] = (byte)1;
     }
 }
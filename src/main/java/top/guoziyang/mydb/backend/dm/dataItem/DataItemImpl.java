@@ -21,7 +21,7 @@ public class DataItemImpl implements DataItem {
     static final int OF_DATA = 3;
 
     private SubArray raw;
-    private byte[] oldRaw;
+    private byte[] oldRaw;  // 第一次修改时才分配，只读的 DataItem 不需要
     private Lock rLock;
     private Lock wLock;
     private DataManagerImpl dm;
@@ -51,7 +51,10 @@ public class DataItemImpl implements DataItem {
     @Override
     public void before() {
         wLock.lock();
-        pg.setDirty(true);
+        dm.markDirty(pg);
+        if (oldRaw == null) {
+            oldRaw = new byte[raw.end - raw.start];
+        }
         System.arraycopy(raw.raw, raw.start, oldRaw, 0, oldRaw.length);
     }
 
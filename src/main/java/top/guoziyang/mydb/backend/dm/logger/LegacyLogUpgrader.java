@@ -0,0 +1,110 @@
+package top.guoziyang.mydb.backend.dm.logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import top.guoziyang.mydb.backend.utils.Panic;
+import top.guoziyang.mydb.backend.utils.Parser;
+import top.guoziyang.mydb.common.Error;
+
+/**
+ * 旧格式日志的一次性升级
+ * <p>
+ * 旧格式为 [XChecksum] [Log1] ... [LogN] [BadTail]，XChecksum 是对所有日志累加计算的校验和，
+ * 每条日志为 [Size] [Checksum] [Data]，Checksum 同样用种子累乘计算
+ * <p>
+ * 升级时按旧规则校验整个文件、丢弃 BadTail，把每条日志重新计算 CRC32C 写入临时文件，
+ * 再替换原文件。升级中途崩溃时原文件不变，下次打开重新升级
+ */
+class LegacyLogUpgrader {
+    private static final int SEED = 13331;
+
+    static final String UPGRADE_SUFFIX = ".log_upgrade";
+
+    // 文件头不是当前格式时即为旧格式
+    static boolean isLegacy(File f) {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            if (raf.length() < LoggerImpl.HEADER_SIZE) {
+                return true;
+            }
+            return raf.readInt() != LoggerImpl.MAGIC || raf.readInt() != LoggerImpl.VERSION;
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return false;
+    }
+
+    static void upgrade(String path) {
+        File f = new File(path + LoggerImpl.LOG_SUFFIX);
+        File tmp = new File(path + UPGRADE_SUFFIX);
+        long remaining = f.length();
+        if (remaining < 4) {
+            Panic.panic(Error.BadLogFileException);
+        }
+        long end = LoggerImpl.HEADER_SIZE;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+             FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            int xChecksum = in.readInt();
+            remaining -= 4;
+            out.write(LoggerImpl.header(LoggerImpl.HEADER_SIZE).array());
+
+            int xCheck = 0;
+            while (remaining > 8) {
+                int size = in.readInt();
+                int checksum = in.readInt();
+                if (size < 0 || 8L + size > remaining) {
+                    break;
+                }
+                byte[] data = new byte[size];
+                in.readFully(data);
+                if (calChecksum(0, data) != checksum) {
+                    break;
+                }
+                remaining -= 8 + size;
+                xCheck = calChecksum(calChecksum(calChecksum(xCheck, Parser.int2Byte(size)), Parser.int2Byte(checksum)), data);
+
+                byte[] sizeRaw = Parser.int2Byte(size);
+                out.write(sizeRaw);
+                out.writeInt(LoggerImpl.calChecksum(sizeRaw, data, 0, size));
+                out.write(data);
+                end += 8 + size;
+            }
+            if (xCheck != xChecksum) {
+                Panic.panic(Error.BadLogFileException);
+            }
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        // 全部日志都已确认完整，升级后打开时无需再校验
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.getChannel().write(LoggerImpl.header(end), 0);
+            raf.getChannel().force(false);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        try {
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    private static int calChecksum(int xCheck, byte[] log) {
+        for (byte b : log) {
+            xCheck = xCheck * SEED + b;
+        }
+        return xCheck;
+    }
+}
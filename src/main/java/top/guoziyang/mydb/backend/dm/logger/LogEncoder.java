@@ -0,0 +1,18 @@
+package top.guoziyang.mydb.backend.dm.logger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 把一条日志的数据直接写入日志缓冲区，不必先拼出一个 byte[]
+ */
+public interface LogEncoder {
+    /**
+     * 日志数据的长度，不包含 [Size] [Checksum]
+     */
+    int size();
+
+    /**
+     * 从 buf 的当前位置写入 size() 个字节
+     */
+    void encode(ByteBuffer buf);
+}
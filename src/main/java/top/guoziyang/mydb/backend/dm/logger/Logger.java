@@ -4,26 +4,88 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.TreeMap;
 
 import top.guoziyang.mydb.backend.utils.Panic;
-import top.guoziyang.mydb.backend.utils.Parser;
 import top.guoziyang.mydb.common.Error;
 
 public interface Logger {
-    void log(byte[] data);
+    long DEFAULT_COMMIT_DELAY = 0;         // 组提交等待时间，微秒
+    int DEFAULT_BATCH_BYTES = 256 * 1024;  // 组提交攒够这么多字节立即落盘
+    long DEFAULT_SEGMENT_SIZE = 16L << 20; // 日志段大小
+
+    /**
+     * 写入一条日志，返回时日志已经落盘
+     *
+     * @return 这条日志的位置
+     */
+    long log(byte[] data);
+
+    /**
+     * 写入一条日志，数据由 enc 直接编码进日志缓冲区
+     *
+     * @return 这条日志的位置
+     */
+    long log(LogEncoder enc);
+
+    /**
+     * 写入一条日志，只放进日志缓冲区，不等待落盘；随后任何一次 log 或 flush 返回时它也已经落盘
+     *
+     * @return 这条日志的位置
+     */
+    long append(byte[] data);
+
+    long append(LogEncoder enc);
+
+    void flush();  //把缓冲区中的日志落盘
+
+    /**
+     * 组提交参数，用延迟换吞吐
+     *
+     * @param commitDelayMicros 领头线程落盘前最多等待多久让其他日志加入，0 表示不等待
+     * @param batchBytes        待写日志攒够这么多字节时不再等待
+     */
+    void setGroupCommit(long commitDelayMicros, int batchBytes);
+
+    /**
+     * 记录检查点：已经落盘的日志都是完整的，下次打开时只需从这里向后校验；
+     * lsn 之前的日志不再需要，完全位于 lsn 之前的段被删除
+     */
+    void checkpoint(long lsn);
 
     void truncate(long x) throws Exception;
 
     byte[] next();
 
+    long lastLsn();  //上一次 next 返回的日志的位置
+
+    /**
+     * 读取 lsn 处已经落盘的一条日志，不移动 next 的读取指针，可以多个线程并发调用
+     * 日志已被检查点删除、不完整或校验失败时返回 null
+     */
+    byte[] read(long lsn);
+
     void rewind();
 
+    void seek(long lsn);  //把读取指针移到 lsn，lsn 早于最老的一条日志时移到最老的一条日志
+
+    long getEnd();  //日志末尾的位置，即下一条日志写入的位置
+
     void close();
 
     public static Logger create(String path) {
-        File f = new File(path + LoggerImpl.LOG_SUFFIX);
+        return create(path, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize 日志段大小，写满后切换到下一段
+     */
+    public static Logger create(String path, long segmentSize) {
+        if (!LoggerImpl.segments(path).isEmpty()) {
+            Panic.panic(Error.FileExistsException);
+        }
+        File f = LoggerImpl.segmentFile(path, 0);
         try {
             if (!f.createNewFile()) {
                 Panic.panic(Error.FileExistsException);
@@ -44,39 +106,47 @@ public interface Logger {
             Panic.panic(e);
         }
 
-        ByteBuffer buf = ByteBuffer.wrap(Parser.int2Byte(0));
         try {
-            fc.position(0);
-            fc.write(buf);
+            fc.write(LoggerImpl.header(LoggerImpl.HEADER_SIZE), 0);
             fc.force(false);
         } catch (IOException e) {
             Panic.panic(e);
         }
 
-        return new LoggerImpl(raf, fc, 0);
+        LoggerImpl lg = new LoggerImpl(path, segmentSize);
+        lg.init(raf, fc);
+        return lg;
     }
 
     public static Logger open(String path) {
-        File f = new File(path + LoggerImpl.LOG_SUFFIX);
-        if (!f.exists()) {
+        return open(path, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public static Logger open(String path, long segmentSize) {
+        TreeMap<Integer, File> segments = LoggerImpl.segments(path);
+        if (segments.isEmpty()) {
             Panic.panic(Error.FileNotExistsException);
         }
-        if (!f.canRead() || !f.canWrite()) {
-            Panic.panic(Error.FileCannotRWException);
+        for (File f : segments.values()) {
+            if (!f.canRead() || !f.canWrite()) {
+                Panic.panic(Error.FileCannotRWException);
+            }
         }
-
-        FileChannel fc = null;
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
-        } catch (FileNotFoundException e) {
-            Panic.panic(e);
+        if (segments.size() == 1 && segments.containsKey(0) && LegacyLogUpgrader.isLegacy(segments.get(0))) {
+            LegacyLogUpgrader.upgrade(path);
         }
 
-        LoggerImpl lg = new LoggerImpl(raf, fc);
-        lg.init();
-
+        LoggerImpl lg = new LoggerImpl(path, segmentSize);
+        lg.init(segments);
         return lg;
     }
+
+    /**
+     * 删除 path 的所有日志段
+     */
+    public static void delete(String path) {
+        for (File f : LoggerImpl.segments(path).values()) {
+            f.delete();
+        }
+    }
 }
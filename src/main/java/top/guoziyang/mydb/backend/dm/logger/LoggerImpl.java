@@ -1,14 +1,19 @@
 package top.guoziyang.mydb.backend.dm.logger;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
 import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-
-import com.google.common.primitives.Bytes;
+import java.util.zip.CRC32C;
 
 import top.guoziyang.mydb.backend.utils.Panic;
 import top.guoziyang.mydb.backend.utils.Parser;
@@ -17,191 +22,539 @@ import top.guoziyang.mydb.common.Error;
 /**
  * 日志文件读写
  * <p>
- * 日志文件标准格式为：
- * [XChecksum] [Log1] [Log2] ... [LogN] [BadTail]
- * XChecksum 为后续所有日志计算的校验和，int类型
- * BadTail 是在数据库崩溃时，没有来的及写完的数据日志  （不一定存在）
+ * 日志被切分为固定大小的段文件，第 0 段为 path.log，之后依次为 path.log.1、path.log.2 ...
+ * 当前段写满后封存并新建下一段，检查点之前的整段日志可以删除。
+ * 日志位置（LSN）为 段号 << 32 | 段内偏移，在所有段之间单调递增
+ * <p>
+ * 每个段文件的格式为：
+ * [Header] [Log1] [Log2] ... [LogN] [BadTail]
+ * Header 16字节，只保存元数据：
+ * [Magic] 4字节 标识新格式的日志文件
+ * [Version] 4字节 格式版本
+ * [ScanStart] 8字节 段内偏移，之前的日志都是完整的，打开时只需从这里向后校验。段封存时即为段的末尾
+ * BadTail 是在数据库崩溃时，没有来的及写完的数据日志  （不一定存在，只会出现在最后一段）
  * 每条正确日志的格式为：
  * [Size] [Checksum] [Data]
  * Size 4字节int 标识Data长度 0-4 对应于 OF_Size-OF_CheckSum 的位置
- * Checksum 4字节int  对应于OF_checksUM-ofDATE的位置
+ * Checksum 4字节int 对 [Size] [Data] 计算的 CRC32C，每条日志自己就能校验完整性
  * Date 不定长    由ofDATE和size确定长度
+ * <p>
+ * 写入采用组提交：并发的 log 调用把日志直接编码进日志缓冲区，第一个发现没有线程在落盘的调用者成为领头，
+ * 把缓冲区中的日志一次写入、只 force 一次，其余调用者等待自己的日志落盘后返回。
+ * 两块直接内存缓冲区交替使用，领头线程写盘时后来的日志写入另一块，追加日志的过程中不分配内存
+ * <p>
+ * 旧格式（头部为全文件校验和）的日志在打开时由 LegacyLogUpgrader 一次性转换
  */
 public class LoggerImpl implements Logger {
-    //生成校验和的种子
-    private static final int SEED = 13331;
+    static final int MAGIC = 0x4D59444C;  // "MYDL"
+    static final int VERSION = 2;
+
+    private static final int OF_MAGIC = 0;
+    private static final int OF_VERSION = OF_MAGIC + 4;
+    private static final int OF_SCAN_START = OF_VERSION + 4;
+    static final int HEADER_SIZE = OF_SCAN_START + 8;
 
     private static final int OF_SIZE = 0;
     private static final int OF_CHECKSUM = OF_SIZE + 4;//4
     private static final int OF_DATA = OF_CHECKSUM + 4;//数据存储位置相对指针
 
+    private static final int SEG_SHIFT = 32;
+    private static final int BUFFER_SIZE = 1 << 20;  // 日志缓冲区大小，组提交一批不超过一块缓冲区
+
     public static final String LOG_SUFFIX = ".log";
 
-    private RandomAccessFile file;
+    private final String path;
+    private final long segmentSize;
+
+    private RandomAccessFile file;  // 当前段
     private FileChannel fc;
+    private int curSeg;
+    private int firstSeg;           // 最老的未删除的段
     private Lock lock;
+    private Lock fileLock;          // 当前段的写入、切换与头部修改互斥
+    private Condition durable;    // 一批日志落盘
+    private Condition batchFull;  // 待写队列攒够了 batchBytes
 
-    private long position;  // 当前日志指针的位置
-    private long fileSize;  // 初始化时记录，log操作不更新
-    private int xChecksum;
+    private long position;  // 当前读取的日志位置
+    private long lastRead;  // 上一次读到的日志的位置
+    private int readSeg = -1;       // 读取已封存段时打开的文件
+    private RandomAccessFile readFile;
+    private ConcurrentHashMap<Integer, RandomAccessFile> readers = new ConcurrentHashMap<>();  // read 打开的已封存段
+    private volatile long end;  // 日志末尾的位置，包括还在待写队列中的日志
+    private long flushedEnd;    // 已经落盘的日志末尾
 
-    LoggerImpl(RandomAccessFile raf, FileChannel fc) {
-        this.file = raf;
-        this.fc = fc;
+    private ByteBuffer buf;     // 等待领头线程写入的日志
+    private ByteBuffer spare;   // 领头线程正在写入的缓冲区，写完后与 buf 交替使用
+    private CRC32C crc = new CRC32C();
+    private boolean flushing;   // 是否已有领头线程在落盘
+    private long commitDelayNanos = TimeUnit.MICROSECONDS.toNanos(DEFAULT_COMMIT_DELAY);
+    private int batchBytes = DEFAULT_BATCH_BYTES;
+
+    LoggerImpl(String path, long segmentSize) {
+        this.path = path;
+        this.segmentSize = segmentSize;
         lock = new ReentrantLock();
+        fileLock = new ReentrantLock();
+        durable = lock.newCondition();
+        batchFull = lock.newCondition();
+        buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        spare = ByteBuffer.allocateDirect(BUFFER_SIZE);
     }
 
-    LoggerImpl(RandomAccessFile raf, FileChannel fc, int xChecksum) {
+    // 新建日志时从第 0 段开始
+    void init(RandomAccessFile raf, FileChannel fc) {
+        lockFile(fc);
         this.file = raf;
         this.fc = fc;
-        this.xChecksum = xChecksum;
-        lock = new ReentrantLock();
+        this.end = lsn(0, HEADER_SIZE);
+        this.flushedEnd = end;
+        rewind();
     }
 
     // 打开以存在日志文件的初始化
-    void init() {
-        long size = 0;
-        try {
-            size = file.length();
-        } catch (IOException e) {
-            Panic.panic(e);
+    void init(TreeMap<Integer, File> segments) {
+        firstSeg = segments.firstKey();
+        curSeg = segments.lastKey();
+        if (curSeg - firstSeg + 1 != segments.size()) {
+            // 段不连续
+            Panic.panic(Error.BadLogFileException);
+        }
+        long scanStart = readHeader(segments.get(curSeg));
+        if (scanStart < 0 && curSeg > firstSeg) {
+            // 新建段时崩溃，上一段在新建前已经封存，从上一段继续写
+            segments.remove(curSeg).delete();
+            curSeg--;
+            scanStart = readHeader(segments.get(curSeg));
         }
-        if (size < 4) {//说明字节数小于总校验和的长度不符合标准
+        if (scanStart < 0) {
             Panic.panic(Error.BadLogFileException);
         }
-        //1.读取总校验和
-        ByteBuffer raw = ByteBuffer.allocate(4);
         try {
-            fc.position(0);
-            fc.read(raw);
+            file = new RandomAccessFile(segments.get(curSeg), "rw");
+            fc = file.getChannel();
         } catch (IOException e) {
             Panic.panic(e);
         }
-        int xChecksum = Parser.parseInt(raw.array());
-        this.fileSize = size;
-        this.xChecksum = xChecksum;
-        //2.校验日志合法性去除结尾可能存在的不合格数据
-        checkAndRemoveTail();
+        lockFile(fc);
+        //从 ScanStart 向后校验日志，去除结尾可能存在的不合格数据
+        checkAndRemoveTail(scanStart);
     }
 
-    // 检查并移除bad tail
-    private void checkAndRemoveTail() {
-        //1.初始化读取指针的位置
-        rewind();
-
-        int xCheck = 0;
-        while (true) {
-            //读取下一条日志的全部数据
-            byte[] log = internNext();
-            if (log == null) break;
-            //计算当前日志对于总校验和的叠加影响
-            // todo 重复计算了 再获得log时内部已经计算过了呀
-            xCheck = calChecksum(xCheck, log);
+    /**
+     * 锁住当前段，同一份日志已被打开（本进程或其他进程）时直接 panic
+     */
+    private static void lockFile(FileChannel fc) {
+        try {
+            if (fc.tryLock() == null) {
+                Panic.panic(Error.FileInUseException);
+            }
+        } catch (OverlappingFileLockException e) {
+            Panic.panic(Error.FileInUseException);
+        } catch (IOException e) {
+            Panic.panic(e);
         }
-        if (xCheck != xChecksum) {
-            Panic.panic(Error.BadLogFileException);
+    }
+
+    // 读取段头，返回 ScanStart，段头损坏时返回 -1
+    private static long readHeader(File f) {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            long size = raf.length();
+            if (size < HEADER_SIZE) {//说明字节数小于头部的长度不符合标准
+                return -1;
+            }
+            ByteBuffer raw = ByteBuffer.allocate(HEADER_SIZE);
+            raf.getChannel().read(raw, 0);
+            if (raw.getInt(OF_MAGIC) != MAGIC || raw.getInt(OF_VERSION) != VERSION) {
+                return -1;
+            }
+            long scanStart = raw.getLong(OF_SCAN_START);
+            if (scanStart < HEADER_SIZE || scanStart > size) {
+                return -1;
+            }
+            return scanStart;
+        } catch (IOException e) {
+            Panic.panic(e);
         }
-        //去除尾部不合规数据
+        return -1;
+    }
+
+    // 检查并移除bad tail，scanStart 之前的日志已经确认完整
+    private void checkAndRemoveTail(long scanStart) {
+        long offset = scanStart;
+        long size = 0;
         try {
-            truncate(position);
-        } catch (Exception e) {
+            size = fc.size();
+        } catch (IOException e) {
             Panic.panic(e);
         }
-        //重新设置下一次日志文件的写入指针位置
+        byte[] log;
+        while ((log = readLog(fc, offset, size)) != null) {
+            offset += log.length;
+        }
+        //去除尾部不合规数据
         try {
-            file.seek(position);
+            fc.truncate(offset);
         } catch (IOException e) {
             Panic.panic(e);
         }
+        end = lsn(curSeg, offset);
+        flushedEnd = end;
         rewind();
     }
 
+    // 写入文件头，ScanStart 为打开时开始校验的位置
+    static ByteBuffer header(long scanStart) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        buf.putInt(OF_MAGIC, MAGIC);
+        buf.putInt(OF_VERSION, VERSION);
+        buf.putLong(OF_SCAN_START, scanStart);
+        return buf;
+    }
+
     /**
-     * 计算单条日志的校验和
-     *
-     * @param xCheck 当前校验和
-     * @param log    日志数据
-     * @return 校验和与种子的乘积加上当前数据 最后累加得到
+     * 计算单条日志的校验和，覆盖长度字段和数据
+     */
+    static int calChecksum(byte[] size, byte[] data, int start, int end) {
+        CRC32C crc = new CRC32C();
+        crc.update(size, 0, size.length);
+        crc.update(data, start, end - start);
+        return (int) crc.getValue();
+    }
+
+    static long lsn(int seg, long offset) {
+        return ((long) seg << SEG_SHIFT) | offset;
+    }
+
+    private static int segOf(long lsn) {
+        return (int) (lsn >>> SEG_SHIFT);
+    }
+
+    private static long offsetOf(long lsn) {
+        return lsn & ((1L << SEG_SHIFT) - 1);
+    }
+
+    // 第 0 段沿用原来的 path.log，已有的单文件日志就是第 0 段
+    static File segmentFile(String path, int seg) {
+        return new File(seg == 0 ? path + LOG_SUFFIX : path + LOG_SUFFIX + "." + seg);
+    }
+
+    /**
+     * 列出 path 的所有日志段，按段号排序
      */
-    private int calChecksum(int xCheck, byte[] log) {
-        for (byte b : log) {
-            xCheck = xCheck * SEED + b;
+    static TreeMap<Integer, File> segments(String path) {
+        TreeMap<Integer, File> segs = new TreeMap<>();
+        File base = new File(path + LOG_SUFFIX);
+        File dir = base.getAbsoluteFile().getParentFile();
+        String prefix = base.getName() + ".";
+        String[] names = dir.list();
+        if (names == null) {
+            return segs;
+        }
+        for (String name : names) {
+            if (name.equals(base.getName())) {
+                segs.put(0, segmentFile(path, 0));
+            } else if (name.startsWith(prefix) && name.length() > prefix.length()
+                    && name.substring(prefix.length()).chars().allMatch(Character::isDigit)) {
+                int seg = Integer.parseInt(name.substring(prefix.length()));
+                segs.put(seg, segmentFile(path, seg));
+            }
+        }
+        return segs;
+    }
+
+    // 当前段放不下这条日志时写到下一段的开头，单条日志超过段大小时独占一段
+    private long nextLsn(long pos, int length) {
+        long offset = offsetOf(pos);
+        if (offset > HEADER_SIZE && offset + length > segmentSize) {
+            return lsn(segOf(pos) + 1, HEADER_SIZE);
         }
-        return xCheck;
+        return pos;
     }
 
-    //写入一条日志数据
+    //写入一条日志数据，返回时该日志已经落盘
     @Override
-    public void log(byte[] data) {
-        //1.将数据包装 添加[size] 和[checkSum]
-        byte[] log = wrapLog(data);
-        ByteBuffer buf = ByteBuffer.wrap(log);
+    public long log(byte[] data) {
+        return log(new BytesEncoder(data));
+    }
+
+    @Override
+    public long log(LogEncoder enc) {
         lock.lock();
         try {
-            fc.position(fc.size());
-            fc.write(buf);//写入通道 并没有写入实体文件
-        } catch (IOException e) {
-            Panic.panic(e);
+            long lsn = put(enc);
+            waitDurable(end);
+            return lsn;
         } finally {
             lock.unlock();
         }
-        updateXChecksum(log);//更新头部总校验和
     }
 
-    private void updateXChecksum(byte[] log) {
-        this.xChecksum = calChecksum(this.xChecksum, log);
+    @Override
+    public long append(byte[] data) {
+        return append(new BytesEncoder(data));
+    }
+
+    @Override
+    public long append(LogEncoder enc) {
+        lock.lock();
+        try {
+            return put(enc);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        lock.lock();
+        try {
+            waitDurable(end);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 持有 lock 调用，把一条日志放进缓冲区，返回它的 LSN
+    private long put(LogEncoder enc) {
+        int length = OF_DATA + enc.size();
+        //1.缓冲区放不下时先落盘腾出空间
+        while (buf.remaining() < length) {
+            if (buf.position() == 0) {
+                // 单条日志比缓冲区还大
+                buf = ByteBuffer.allocateDirect(length);
+            } else if (flushing) {
+                batchFull.signal();
+                durable.awaitUninterruptibly();
+            } else {
+                flushBatch();
+            }
+        }
+        //2.分配这条日志的 LSN，直接写入缓冲区 [size][checkSum][data]
+        long lsn = nextLsn(end, length);
+        end = lsn + length;
+        encodeRecord(enc, length);
+        if (flushing && buf.position() >= batchBytes) {
+            batchFull.signal();
+        }
+        return lsn;
+    }
+
+    // 持有 lock 调用，等待 logEnd 之前的日志落盘：没有领头线程时自己落盘，否则等待领头线程
+    private void waitDurable(long logEnd) {
+        while (flushedEnd < logEnd) {
+            if (flushing) {
+                durable.awaitUninterruptibly();
+            } else {
+                flushBatch();
+            }
+        }
+    }
+
+    // 在缓冲区末尾写入一条日志，校验和直接在缓冲区上计算
+    private void encodeRecord(LogEncoder enc, int length) {
+        int start = buf.position();
+        buf.putInt(length - OF_DATA);
+        buf.putInt(0);
+        enc.encode(buf);
+        int limit = buf.limit();
+        crc.reset();
+        buf.position(start + OF_SIZE).limit(start + OF_CHECKSUM);
+        crc.update(buf);
+        buf.limit(start + length).position(start + OF_DATA);
+        crc.update(buf);
+        buf.limit(limit);
+        buf.putInt(start + OF_CHECKSUM, (int) crc.getValue());
+    }
+
+    // 由领头线程调用，持有 lock 进入，写盘期间释放 lock，让后来的日志写入另一块缓冲区
+    private void flushBatch() {
+        flushing = true;
+        try {
+            // 等待更多日志加入，直到超时或者攒够一批
+            long nanos = commitDelayNanos;
+            while (nanos > 0 && buf.position() < batchBytes) {
+                nanos = batchFull.awaitNanos(nanos);
+            }
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+        ByteBuffer batch = buf;
+        long batchStart = flushedEnd;
+        long batchEnd = end;
+        buf = spare;
+        lock.unlock();
+        try {
+            batch.flip();
+            writeBatch(batch, batchStart);
+            batch.clear();
+        } finally {
+            lock.lock();
+        }
+        spare = batch;
+        flushedEnd = batchEnd;
+        flushing = false;
+        durable.signalAll();
+    }
+
+    // 顺序写入一批日志，段写满时封存并切换到下一段，最后只 force 一次
+    private void writeBatch(ByteBuffer batch, long pos) {
+        fileLock.lock();
         try {
-            fc.position(0);
-            fc.write(ByteBuffer.wrap(Parser.int2Byte(xChecksum)));
+            long writeFrom = pos;
+            int from = 0;
+            int batchEnd = batch.limit();  // write 会重置 limit，这里先记下这批日志的末尾
+            for (int i = 0; i < batchEnd; ) {
+                int length = OF_DATA + batch.getInt(i + OF_SIZE);
+                long lsn = nextLsn(pos, length);
+                if (segOf(lsn) != segOf(pos)) {
+                    write(batch, from, i, writeFrom);
+                    rotate(offsetOf(pos));
+                    writeFrom = lsn;
+                    from = i;
+                }
+                pos = lsn + length;
+                i += length;
+            }
+            write(batch, from, batchEnd, writeFrom);
             fc.force(false); //刷新缓冲区 所有内容写入实体文件
         } catch (IOException e) {
             Panic.panic(e);
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    // 把 batch 中 [from, to) 的日志写到 lsn 处
+    private void write(ByteBuffer batch, int from, int to, long lsn) throws IOException {
+        batch.limit(to).position(from);
+        long offset = offsetOf(lsn);
+        while (batch.hasRemaining()) {
+            offset += fc.write(batch, offset);
         }
+        batch.limit(batch.capacity());
     }
 
-    private byte[] wrapLog(byte[] data) {
-        byte[] checksum = Parser.int2Byte(calChecksum(0, data));
-        byte[] size = Parser.int2Byte(data.length);
-        return Bytes.concat(size, checksum, data);
+    // 封存当前段：记录段末尾并落盘，之后再新建下一段
+    private void rotate(long sealedEnd) throws IOException {
+        fc.write(header(sealedEnd), 0);
+        fc.force(false);
+        fc.close();
+        file.close();
+
+        File f = segmentFile(path, curSeg + 1);
+        file = new RandomAccessFile(f, "rw");
+        fc = file.getChannel();
+        lockFile(fc);
+        fc.truncate(0);
+        fc.write(header(HEADER_SIZE), 0);
+        fc.force(false);
+        curSeg++;
     }
 
     @Override
-    public void truncate(long x) throws Exception {
+    public void setGroupCommit(long commitDelayMicros, int batchBytes) {
         lock.lock();
         try {
-            fc.truncate(x);
+            this.commitDelayNanos = TimeUnit.MICROSECONDS.toNanos(commitDelayMicros);
+            this.batchBytes = batchBytes;
         } finally {
             lock.unlock();
         }
     }
 
+    private static class BytesEncoder implements LogEncoder {
+        private final byte[] data;
+
+        BytesEncoder(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int size() {
+            return data.length;
+        }
+
+        @Override
+        public void encode(ByteBuffer buf) {
+            buf.put(data);
+        }
+    }
+
+    @Override
+    public void checkpoint(long lsn) {
+        long flushed;
+        lock.lock();
+        try {
+            flushed = flushedEnd;
+        } finally {
+            lock.unlock();
+        }
+        fileLock.lock();
+        try {
+            // 已经落盘的日志都是完整的，下次打开从这里开始校验
+            if (segOf(flushed) == curSeg) {
+                writeHeader(offsetOf(flushed));
+            }
+            // 删除完全位于 lsn 之前的段，当前段始终保留
+            int keepFrom = Math.min(segOf(lsn), curSeg);
+            while (firstSeg < keepFrom) {
+                closeReader(firstSeg);
+                segmentFile(path, firstSeg).delete();
+                firstSeg++;
+            }
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    private void writeHeader(long scanStart) {
+        try {
+            fc.write(header(scanStart), 0);
+            fc.force(false);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public void truncate(long x) throws Exception {
+        fileLock.lock();
+        try {
+            if (segOf(x) == curSeg) {
+                fc.truncate(offsetOf(x));
+            }
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
     /**
-     * 获得下一条日志数据
+     * 读取 offset 处的一条完整日志 [size][checkSum][date]，不完整或校验失败时返回 null
      *
-     * @return
+     * @param limit 段内可读的末尾
      */
-    private byte[] internNext() {
-        if (position + OF_DATA >= fileSize) {
+    private byte[] readLog(FileChannel ch, long offset, long limit) {
+        if (offset + OF_DATA >= limit) {
             return null;
         }
         //1. 读取下一条日志的前4各字节 确定长度
         ByteBuffer tmp = ByteBuffer.allocate(4);
         try {
-            fc.position(position);
-            fc.read(tmp);
+            ch.read(tmp, offset);
         } catch (IOException e) {
             Panic.panic(e);
         }
         int size = Parser.parseInt(tmp.array());
-        //2.校验 当前日志长度是否超过文件长度
-        if (position + size + OF_DATA > fileSize) {
+        //2.校验 当前日志长度是否超过段的长度
+        if (size < 0 || offset + size + OF_DATA > limit) {
             return null;
         }
         //3.读取 一条完整的日志 [size][checkSum][date]
         ByteBuffer buf = ByteBuffer.allocate(OF_DATA + size);
         try {
-            fc.position(position);
-            fc.read(buf);
+            while (buf.hasRemaining()) {
+                ch.read(buf, offset + buf.position());
+            }
         } catch (IOException e) {
             Panic.panic(e);
         }
@@ -209,19 +562,17 @@ public class LoggerImpl implements Logger {
         byte[] log = buf.array();
         // 4.校验和对比
         //4.1 计算校验和
-        int checkSum1 = calChecksum(0, Arrays.copyOfRange(log, OF_DATA, log.length));
+        int checkSum1 = calChecksum(Arrays.copyOfRange(log, OF_SIZE, OF_CHECKSUM), log, OF_DATA, log.length);
         //4.2 文件中读取校验和
         int checkSum2 = Parser.parseInt(Arrays.copyOfRange(log, OF_CHECKSUM, OF_DATA));
         if (checkSum1 != checkSum2) {
             return null;
         }
-        //5. 文件指针前移
-        position += log.length;
         return log;
     }
 
     /**
-     * 读取下一条日志
+     * 读取下一条日志，当前段读完后继续读下一段
      *
      * @return 返回的是实际数据  不包含[size][checkSum]
      */
@@ -229,25 +580,153 @@ public class LoggerImpl implements Logger {
     public byte[] next() {
         lock.lock();
         try {
-            byte[] log = internNext();
-            if (log == null) return null;
-            return Arrays.copyOfRange(log, OF_DATA, log.length);
+            while (true) {
+                int seg = segOf(position);
+                if (seg > curSeg) {
+                    return null;
+                }
+                byte[] log = null;
+                if (seg == curSeg) {
+                    log = readLog(fc, offsetOf(position), offsetOf(flushedEnd));
+                } else if (openSealed(seg)) {
+                    log = readLog(readFile.getChannel(), offsetOf(position), readFile.length());
+                }
+                if (log != null) {
+                    lastRead = position;
+                    position += log.length;
+                    return Arrays.copyOfRange(log, OF_DATA, log.length);
+                }
+                if (seg == curSeg) {
+                    return null;
+                }
+                position = lsn(seg + 1, HEADER_SIZE);
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+            return null;
         } finally {
             lock.unlock();
         }
     }
 
+    // 打开已封存的段用于读取，段已被删除时返回 false
+    private boolean openSealed(int seg) throws IOException {
+        if (readSeg == seg) {
+            return readFile != null;
+        }
+        closeSealed();
+        readSeg = seg;
+        File f = segmentFile(path, seg);
+        if (f.exists()) {
+            readFile = new RandomAccessFile(f, "r");
+        }
+        return readFile != null;
+    }
+
+    private void closeSealed() throws IOException {
+        if (readFile != null) {
+            readFile.close();
+            readFile = null;
+        }
+        readSeg = -1;
+    }
+
+    @Override
+    public byte[] read(long lsn) {
+        int seg = segOf(lsn);
+        FileChannel ch = null;
+        long limit = 0;
+        lock.lock();
+        try {
+            if (seg == curSeg) {
+                ch = fc;
+                limit = offsetOf(flushedEnd);
+            }
+        } finally {
+            lock.unlock();
+        }
+        try {
+            if (ch == null) {
+                if (seg > curSeg || seg < firstSeg) {
+                    return null;
+                }
+                RandomAccessFile f = readers.computeIfAbsent(seg, s -> {
+                    try {
+                        return new RandomAccessFile(segmentFile(path, s), "r");
+                    } catch (IOException e) {
+                        return null;  // 段已被删除
+                    }
+                });
+                if (f == null) {
+                    return null;
+                }
+                ch = f.getChannel();
+                limit = f.length();
+            }
+            byte[] log = readLog(ch, offsetOf(lsn), limit);
+            return log == null ? null : Arrays.copyOfRange(log, OF_DATA, log.length);
+        } catch (IOException e) {
+            Panic.panic(e);
+            return null;
+        }
+    }
+
+    private void closeReader(int seg) {
+        RandomAccessFile f = readers.remove(seg);
+        if (f != null) {
+            try {
+                f.close();
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+        }
+    }
+
+    @Override
+    public long lastLsn() {
+        return lastRead;
+    }
+
     /**
      * 初始化指针位置
      */
     @Override
     public void rewind() {
-        position = 4;
+        position = lsn(firstSeg, HEADER_SIZE);
+    }
+
+    @Override
+    public void seek(long lsn) {
+        lock.lock();
+        try {
+            position = Math.max(lsn, lsn(firstSeg, HEADER_SIZE));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getEnd() {
+        return end;
     }
 
+    // 所有 log 调用都已返回，日志全部落盘，下次打开无需再校验
     @Override
     public void close() {
+        flush();  // append 写入缓冲区的日志
+        writeHeader(offsetOf(flushedEnd));
+        abandon();
+    }
+
+    /**
+     * 不落盘缓冲区中的日志、不更新段头直接关闭文件，模拟崩溃
+     */
+    void abandon() {
+        for (int seg : readers.keySet()) {
+            closeReader(seg);
+        }
         try {
+            closeSealed();
             fc.close();
             file.close();
         } catch (IOException e) {
@@ -8,7 +8,12 @@ public interface Page {
     void unlock();
     void release();
     void setDirty(boolean dirty);
+    /**
+     * 标记为脏页，页面原本是干净的时记录 recLsn：该页尚未落盘的修改对应的日志都不早于这个位置
+     */
+    void markDirty(long recLsn);
     boolean isDirty();
+    long getRecLsn();
     int getPageNumber();
     byte[] getData();
 }
@@ -23,7 +23,11 @@ public class PageImpl implements Page {
     /**
      * 标志着该页面是否位脏页面 在缓存驱逐的时候，脏页面需要被写回磁盘：表示已经被修改
      */
-    private boolean dirty;
+    private volatile boolean dirty;
+    /**
+     * 页面变脏时的日志位置，未知时为 0
+     */
+    private volatile long recLsn;
     private Lock lock;
     /**
      * 用来方便在拿到 Page 的引用时可以快速对这个页面的缓存进行释放操作
@@ -51,13 +55,27 @@ public class PageImpl implements Page {
     }
 
     public void setDirty(boolean dirty) {
+        if (dirty && !this.dirty) {
+            recLsn = 0;
+        }
         this.dirty = dirty;
     }
 
+    public void markDirty(long recLsn) {
+        if (!dirty) {
+            this.recLsn = recLsn;
+            dirty = true;
+        }
+    }
+
     public boolean isDirty() {
         return dirty;
     }
 
+    public long getRecLsn() {
+        return recLsn;
+    }
+
     public int getPageNumber() {
         return pageNumber;
     }
@@ -3,6 +3,7 @@ package top.guoziyang.mydb.backend.dm.page;
 import java.util.Arrays;
 
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.utils.Parser;
 import top.guoziyang.mydb.backend.utils.RandomUtil;
 
 /**
@@ -11,10 +12,13 @@ import top.guoziyang.mydb.backend.utils.RandomUtil;
  * db启动时给100~107字节处填入一个随机字节，db关闭时将其拷贝到108~115字节
  * 下一次再启动时会比较 以上两处内容是否相同 来判断是否正常关闭
  * 用于判断上一次数据库是否正常关闭
+ * <p>
+ * 116~123字节处记录最近一次检查点日志的位置，恢复时从这条日志记录的 StartLsn 开始
  */
 public class PageOne {
     private static final int OF_VC = 100;   //比较内容的相对指针
     private static final int LEN_VC = 8;    //比较内容的大小
+    private static final int OF_CHECKPOINT = OF_VC + 2 * LEN_VC;
 
     public static byte[] InitRaw() {
         byte[] raw = new byte[PageCache.PAGE_SIZE];
@@ -50,6 +54,23 @@ public class PageOne {
         System.arraycopy(raw, OF_VC, raw, OF_VC + LEN_VC, LEN_VC);
     }
 
+    public static void setCheckpoint(Page pg, long lsn) {
+        pg.setDirty(true);
+        System.arraycopy(Parser.long2Byte(lsn), 0, pg.getData(), OF_CHECKPOINT, 8);
+    }
+
+    public static long getCheckpoint(Page pg) {
+        byte[] raw = pg.getData();
+        return Parser.parseLong(Arrays.copyOfRange(raw, OF_CHECKPOINT, OF_CHECKPOINT + 8));
+    }
+
+    /**
+     * 100~107 处的内容，打开后到下一次 setVcOpen 之前它标识着上一次运行
+     */
+    public static byte[] getVc(Page pg) {
+        return Arrays.copyOfRange(pg.getData(), OF_VC, OF_VC + LEN_VC);
+    }
+
     /**
      * 检查
      */
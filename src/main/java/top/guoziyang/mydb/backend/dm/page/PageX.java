@@ -8,15 +8,19 @@ import top.guoziyang.mydb.backend.utils.Parser;
 /**
  * PageX管理普通页  页面的工具类
  * 普通页结构
- * [FreeSpaceOffset] [Data]
+ * [FreeSpaceOffset] [Data] ... [PageLsn]
  * FreeSpaceOffset: 2字节
+ * PageLsn: 8字节，位于页尾，最后一条已经反映在这一页上的日志的位置，恢复时跳过不晚于它的日志
+ * <p>
+ * 页尾的 PageLsn 是后来加入的，旧版本写满的页面末尾可能是数据，这样的页面 PageLsn 视为 0
  */
 public class PageX {
 
     private static final short OF_FREE = 0;
     //Todo 用来存储空闲位置的偏移量？
     private static final short OF_DATA = 2;
-    public static final int MAX_FREE_SPACE = PageCache.PAGE_SIZE - OF_DATA;
+    private static final int OF_PAGE_LSN = PageCache.PAGE_SIZE - 8;
+    public static final int MAX_FREE_SPACE = OF_PAGE_LSN - OF_DATA;
 
     public static byte[] initRaw() {
         byte[] raw = new byte[PageCache.PAGE_SIZE];
@@ -51,25 +55,64 @@ public class PageX {
         return offset;
     }
 
+    // 在pg中预留length字节，返回预留的位置，内容由调用者随后写入
+    public static short reserve(Page pg, int length) {
+        pg.setDirty(true);
+        short offset = getFSO(pg.getData());
+        setFSO(pg.getData(), (short) (offset + length));
+        return offset;
+    }
+
     // 获取页面的空闲空间大小
     public static int getFreeSpace(Page pg) {
-        return PageCache.PAGE_SIZE - (int) getFSO(pg.getData());
+        return Math.max(OF_PAGE_LSN - (int) getFSO(pg.getData()), 0);
+    }
+
+    public static long getPageLsn(Page pg) {
+        byte[] raw = pg.getData();
+        if (getFSO(raw) > OF_PAGE_LSN) {
+            return 0;
+        }
+        return Parser.parseLong(Arrays.copyOfRange(raw, OF_PAGE_LSN, PageCache.PAGE_SIZE));
+    }
+
+    // 把 PageLsn 推进到 lsn，同一页上的日志可能由不同线程乱序调用，只取较大值
+    public static void setPageLsn(Page pg, long lsn) {
+        pg.lock();
+        try {
+            byte[] raw = pg.getData();
+            if (getFSO(raw) > OF_PAGE_LSN || lsn <= getPageLsn(pg)) {
+                return;
+            }
+            System.arraycopy(Parser.long2Byte(lsn), 0, raw, OF_PAGE_LSN, 8);
+        } finally {
+            pg.unlock();
+        }
     }
 
     // 将raw插入pg中的offset位置，并将pg的offset设置为较大的offset
     public static void recoverInsert(Page pg, byte[] raw, short offset) {
+        recoverInsert(pg, raw, 0, raw.length, offset);
+    }
+
+    // 同上，数据为 raw[start, start + length)，恢复时直接从日志记录中拷贝
+    public static void recoverInsert(Page pg, byte[] raw, int start, int length, short offset) {
         pg.setDirty(true);
-        System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
+        System.arraycopy(raw, start, pg.getData(), offset, length);
 
         short rawFSO = getFSO(pg.getData());
-        if (rawFSO < offset + raw.length) {
-            setFSO(pg.getData(), (short) (offset + raw.length));
+        if (rawFSO < offset + length) {
+            setFSO(pg.getData(), (short) (offset + length));
         }
     }
 
     // 将raw插入pg中的offset位置，不更新offset
     public static void recoverUpdate(Page pg, byte[] raw, short offset) {
+        recoverUpdate(pg, raw, 0, raw.length, offset);
+    }
+
+    public static void recoverUpdate(Page pg, byte[] raw, int start, int length, short offset) {
         pg.setDirty(true);
-        System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
+        System.arraycopy(raw, start, pg.getData(), offset, length);
     }
 }
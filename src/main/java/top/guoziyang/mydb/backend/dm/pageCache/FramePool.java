@@ -0,0 +1,40 @@
+package top.guoziyang.mydb.backend.dm.pageCache;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 页面帧池
+ * 缓存中的每个页面占用一个 PAGE_SIZE 大小的帧，页面移出缓存时帧归还到池中，下一次缺页直接复用。
+ * 创建时一次分配 capacity 个帧，之后缺页不再分配新的数组，这些帧长期存活在老年代，
+ * 不会在新生代里反复分配回收。
+ * <p>
+ * capacity 取缓存容量加上预读线程同时持有的一个帧：缺页先在缓存中占位才借帧，驱逐和释放先归还帧再让出位置，
+ * 所以借出的帧不会超过 capacity。池中保留的帧也不会超过 capacity，多出来的在归还时丢弃。
+ */
+class FramePool {
+
+    private ArrayBlockingQueue<byte[]> free;
+
+    FramePool(int capacity) {
+        this.free = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            free.offer(new byte[PageCache.PAGE_SIZE]);
+        }
+    }
+
+    /**
+     * 借出一个帧，内容不保证为 0
+     * 按上面的约束池不会为空，为空时说明调用方没有遵守约束，分配一个临时帧，它在归还时被丢弃
+     */
+    byte[] borrow() {
+        byte[] frame = free.poll();
+        return frame != null ? frame : new byte[PageCache.PAGE_SIZE];
+    }
+
+    /**
+     * 归还一个帧，调用方之后不能再访问它
+     */
+    void recycle(byte[] frame) {
+        free.offer(frame);
+    }
+}
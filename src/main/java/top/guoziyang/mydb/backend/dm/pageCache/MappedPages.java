@@ -0,0 +1,97 @@
+package top.guoziyang.mydb.backend.dm.pageCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import top.guoziyang.mydb.backend.utils.Panic;
+
+/**
+ * 以 MappedByteBuffer 分段映射数据库文件
+ * 页面的读写变成对映射区的内存拷贝，不再经过 read/write 系统调用，也不需要文件锁，
+ * 页面数据与操作系统的页缓存共享，由操作系统负责回写
+ * <p>
+ * 每段映射 SEGMENT_SIZE 字节，访问到尚未映射的段时才映射，映射会把文件扩展到段的末尾，
+ * 所以文件长度可能大于实际页数，关闭时由 PageCacheImpl 截断
+ */
+class MappedPages {
+
+    static final long SEGMENT_SIZE = 64L << 20;   // 64MB，是页大小的整数倍
+
+    private FileChannel fc;
+    private volatile MappedByteBuffer[] segments;
+    private Lock mapLock;
+
+    MappedPages(FileChannel fc) {
+        this.fc = fc;
+        this.segments = new MappedByteBuffer[0];
+        this.mapLock = new ReentrantLock();
+    }
+
+    void read(long offset, byte[] dst) {
+        ByteBuffer buf = segment(offset).duplicate();
+        buf.position((int) (offset % SEGMENT_SIZE));
+        buf.get(dst);
+    }
+
+    void write(long offset, byte[] src) {
+        ByteBuffer buf = segment(offset).duplicate();
+        buf.position((int) (offset % SEGMENT_SIZE));
+        buf.put(src);
+    }
+
+    /**
+     * 将所有段的修改落盘
+     */
+    void force() {
+        for (MappedByteBuffer seg : segments) {
+            if (seg != null) {
+                seg.force();
+            }
+        }
+    }
+
+    /**
+     * 文件被截断到 size 后，丢弃越过 size 的映射，之后访问时重新映射
+     */
+    void truncate(long size) {
+        mapLock.lock();
+        try {
+            int keep = (int) (size / SEGMENT_SIZE);
+            if (keep < segments.length) {
+                segments = Arrays.copyOf(segments, keep);
+            }
+        } finally {
+            mapLock.unlock();
+        }
+    }
+
+    private MappedByteBuffer segment(long offset) {
+        int idx = (int) (offset / SEGMENT_SIZE);
+        MappedByteBuffer[] segs = segments;
+        if (idx < segs.length && segs[idx] != null) {
+            return segs[idx];
+        }
+        mapLock.lock();
+        try {
+            segs = segments;
+            if (idx >= segs.length) {
+                segs = Arrays.copyOf(segs, idx + 1);
+            }
+            if (segs[idx] == null) {
+                segs[idx] = fc.map(FileChannel.MapMode.READ_WRITE, idx * SEGMENT_SIZE, SEGMENT_SIZE);
+            }
+            segments = segs;
+            return segs[idx];
+        } catch (IOException e) {
+            Panic.panic(e);
+            return null;
+        } finally {
+            mapLock.unlock();
+        }
+    }
+}
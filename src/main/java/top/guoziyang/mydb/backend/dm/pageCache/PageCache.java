@@ -4,7 +4,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.util.Map;
 
+import top.guoziyang.mydb.backend.common.ClockPolicy;
+import top.guoziyang.mydb.backend.common.ReplacePolicy;
 import top.guoziyang.mydb.backend.dm.page.Page;
 import top.guoziyang.mydb.backend.utils.Panic;
 import top.guoziyang.mydb.common.Error;
@@ -13,6 +16,7 @@ import top.guoziyang.mydb.common.Error;
 public interface PageCache {
 
     public static final int PAGE_SIZE = 1 << 13; //8K 2^13
+    public static final int READ_AHEAD = 32; //一次预读的页数
 
 
     int newPage(byte[] initData);
@@ -29,6 +33,28 @@ public interface PageCache {
 
     void flushPage(Page pg);
 
+    /**
+     * 将未被引用的脏页按页号顺序写回，整批只 force 一次
+     *
+     * @return 仍被引用而没能写回的脏页中最小的 recLsn，没有时返回 Long.MAX_VALUE
+     */
+    long flushDirtyPages();
+
+    /**
+     * 脏页表：缓存中所有脏页的页号及其 recLsn，不写回任何页面
+     */
+    Map<Integer, Long> dirtyPages();
+
+    /**
+     * 每次写回页面之前调用 flushLog 让日志落盘，页面上的修改对应的日志总是先于页面落盘
+     */
+    void setLogFlusher(Runnable flushLog);
+
+    /**
+     * 提示即将顺序访问 [pgno, pgno + count) 的页面，由后台线程一次读出不在缓存中的部分
+     */
+    void prefetch(int pgno, int count);
+
     /**
      * 创建一个页面缓存实现
      * @param path
@@ -36,6 +62,29 @@ public interface PageCache {
      * @return
      */
     public static PageCacheImpl create(String path, long memory) {
+        return create(path, memory, false);
+    }
+
+    /**
+     * 创建一个页面缓存实现
+     * @param path
+     * @param memory
+     * @param mmap 是否以内存映射的方式访问数据库文件
+     * @return
+     */
+    public static PageCacheImpl create(String path, long memory, boolean mmap) {
+        return create(path, memory, mmap, new ClockPolicy((int) (memory / PAGE_SIZE)));
+    }
+
+    /**
+     * 创建一个页面缓存实现
+     * @param path
+     * @param memory
+     * @param mmap 是否以内存映射的方式访问数据库文件
+     * @param policy 缓存满时挑选驱逐页面的替换策略，每个页面缓存独占一个实例
+     * @return
+     */
+    public static PageCacheImpl create(String path, long memory, boolean mmap, ReplacePolicy policy) {
         //与实体文件建立连接
         File f = new File(path + PageCacheImpl.DB_SUFFIX);
 
@@ -58,7 +107,12 @@ public interface PageCache {
         } catch (FileNotFoundException e) {
             Panic.panic(e);
         }
-        return new PageCacheImpl(raf, fc, (int) memory / PAGE_SIZE);
+        PageCacheImpl.lockFile(fc);
+        PageCacheImpl pc = new PageCacheImpl(raf, fc, (int) memory / PAGE_SIZE, policy);
+        if (mmap) {
+            pc.useMmap();
+        }
+        return pc;
     }
 
     /**
@@ -68,6 +122,29 @@ public interface PageCache {
      * @return
      */
     public static PageCacheImpl open(String path, long memory) {
+        return open(path, memory, false);
+    }
+
+    /**
+     * 打开一个页面缓存的是实现
+     * @param path
+     * @param memory
+     * @param mmap 是否以内存映射的方式访问数据库文件
+     * @return
+     */
+    public static PageCacheImpl open(String path, long memory, boolean mmap) {
+        return open(path, memory, mmap, new ClockPolicy((int) (memory / PAGE_SIZE)));
+    }
+
+    /**
+     * 打开一个页面缓存的是实现
+     * @param path
+     * @param memory
+     * @param mmap 是否以内存映射的方式访问数据库文件
+     * @param policy 缓存满时挑选驱逐页面的替换策略，每个页面缓存独占一个实例
+     * @return
+     */
+    public static PageCacheImpl open(String path, long memory, boolean mmap, ReplacePolicy policy) {
         File f = new File(path + PageCacheImpl.DB_SUFFIX);
         if (!f.exists()) {
             Panic.panic(Error.FileNotExistsException);
@@ -84,6 +161,11 @@ public interface PageCache {
         } catch (FileNotFoundException e) {
             Panic.panic(e);
         }
-        return new PageCacheImpl(raf, fc, (int) memory / PAGE_SIZE);
+        PageCacheImpl.lockFile(fc);
+        PageCacheImpl pc = new PageCacheImpl(raf, fc, (int) memory / PAGE_SIZE, policy);
+        if (mmap) {
+            pc.useMmap();
+        }
+        return pc;
     }
 }
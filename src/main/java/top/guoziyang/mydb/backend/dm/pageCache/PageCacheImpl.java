@@ -4,29 +4,75 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import top.guoziyang.mydb.backend.common.AbstractCache;
+import top.guoziyang.mydb.backend.common.ReplacePolicy;
 import top.guoziyang.mydb.backend.dm.page.Page;
 import top.guoziyang.mydb.backend.dm.page.PageImpl;
 import top.guoziyang.mydb.backend.utils.Panic;
 import top.guoziyang.mydb.common.Error;
 
+/**
+ * 页面缓存
+ * 释放后的页面继续常驻缓存，缓存满时由替换策略（默认 CLOCK）挑选一个未被引用的页面，脏页写回后驱逐
+ * <p>
+ * 前台的新建页面和驱逐写回都不再 force，后台刷盘线程定期把未被引用的脏页按页号排序批量写回，每批只 force 一次。
+ * 数据的持久性仍由日志保证。
+ * <p>
+ * 页面读写使用带位置参数的 FileChannel.read/write，不共享文件指针，不同页面的缺页和写回可以同时进行，
+ * fileLock 只保护 newPage 和 truncateByBgno 对文件长度的修改。
+ * <p>
+ * 页面数据存放在 FramePool 借出的帧里，页面移出缓存时帧被回收复用。
+ * <p>
+ * 连续两次缺页的页号相邻时认为在顺序访问，预读线程一次读出后面 readAhead 个页面，以引用计数 0 放入缓存；
+ * 调用方也可以通过 prefetch 直接提示。预读期间有页面被写回时，读出的内容可能已经过期，整批放弃。
+ * <p>
+ * mmap 模式下页面通过 MappedPages 与文件映射区直接拷贝，不再走 FileChannel 的 read/write。
+ * 缺页时仍然把映射区的内容拷贝进一个堆内帧：上层通过 Page.getData() 直接修改 byte[]，
+ * 映射区无法以 byte[] 的形式交出去。省下的只是系统调用，不是这次拷贝。
+ */
 public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
 
     private static final int MEM_MIN_LIM = 10;//缓存空间的最小限制
     public static final String DB_SUFFIX = ".db";//文件后缀
+    private static final long FLUSH_INTERVAL = 500;//后台刷盘间隔 ms
 
     private RandomAccessFile file;
     private FileChannel fc;
-    private Lock fileLock;
+    private Lock fileLock;              //文件扩展与截断互斥
+    private FramePool frames;
+    private volatile MappedPages mapped; //mmap 模式下的文件映射，为 null 时走 FileChannel
 
     private AtomicInteger pageNumbers;  //记录当前打开的数据库文件有多少页 并不是缓存中有多少页 具体指代当前数据库文件的大小
 
-    PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource) {
-        super(maxResource);
+    private volatile Runnable logFlusher;  //写回页面之前让日志落盘
+    private Lock flushLock;             //后台刷盘与检查点刷盘互斥
+    private CountDownLatch stopped;
+    private Thread flusher;
+
+    private int readAhead;              //一次预读的页数，不超过缓存容量的 1/4
+    private ThreadPoolExecutor prefetcher;
+    private ByteBuffer prefetchBuf;     //只由预读线程使用
+    private AtomicLong writeEpoch;      //每次写回完成后加一，用来判断预读的内容是否过期
+    private volatile int nextMiss;      //顺序访问时预期的下一个缺页
+    private volatile int windowStart, windowEnd;    //最近一次预读的范围
+
+    PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource, ReplacePolicy policy) {
+        super(maxResource, policy);
         if (maxResource < MEM_MIN_LIM) {
             Panic.panic(Error.MemTooSmallException);
         }
@@ -39,17 +85,69 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         this.file = file;
         this.fc = fileChannel;
         this.fileLock = new ReentrantLock();
-        this.pageNumbers = new AtomicInteger((int) length / PAGE_SIZE);
+        this.frames = new FramePool(maxResource + 1);    //多出的一个给预读线程
+        this.pageNumbers = new AtomicInteger((int) (length / PAGE_SIZE));
+        this.flushLock = new ReentrantLock();
+        this.stopped = new CountDownLatch(1);
+        this.flusher = new Thread(this::flushLoop, "page-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        this.readAhead = Math.min(READ_AHEAD, maxResource / 4);
+        this.prefetchBuf = ByteBuffer.allocateDirect(readAhead * PAGE_SIZE);
+        this.writeEpoch = new AtomicLong(0);
+        // 预读只是提示，队列满时直接丢弃
+        this.prefetcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(8), r -> {
+            Thread t = new Thread(r, "page-prefetcher");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * 锁住数据库文件，同一个文件同时只能被一个页面缓存打开，重复打开直接 panic
+     * 本进程内已经锁住时 tryLock 抛出 OverlappingFileLockException，其他进程持有时返回 null
+     */
+    static void lockFile(FileChannel fc) {
+        try {
+            if (fc.tryLock() == null) {
+                Panic.panic(Error.FileInUseException);
+            }
+        } catch (OverlappingFileLockException e) {
+            Panic.panic(Error.FileInUseException);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    /**
+     * 切换为 mmap 模式，必须在访问页面之前调用
+     */
+    void useMmap() {
+        this.mapped = new MappedPages(fc);
+    }
+
+    private void flushLoop() {
+        try {
+            while (!stopped.await(FLUSH_INTERVAL, TimeUnit.MILLISECONDS)) {
+                flushDirtyPages();
+            }
+        } catch (InterruptedException ignored) {
+        }
     }
 
     /**
      * 创建新的页面并返回页号
      */
     public int newPage(byte[] initData) {
-        int pgno = pageNumbers.incrementAndGet();
-        Page pg = new PageImpl(pgno, initData, null);
-        flush(pg);  //将新增的内存里的页面写回数据库--》实际文件会增加一个页面大小（8k）
-        return pgno;
+        fileLock.lock();
+        try {
+            int pgno = pageNumbers.incrementAndGet();
+            Page pg = new PageImpl(pgno, initData, null);
+            write(pg);  //将新增的内存里的页面写回数据库--》实际文件会增加一个页面大小（8k），不等待落盘
+            return pgno;
+        } finally {
+            fileLock.unlock();
+        }
     }
 
     /**
@@ -67,27 +165,112 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         int pgno = (int) key;
         long offset = PageCacheImpl.pageOffset(pgno);
 
-        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
-        fileLock.lock();
+        byte[] data = frames.borrow();
+        if (mapped != null) {
+            // 映射区到堆内帧的拷贝，见类注释
+            mapped.read(offset, data);
+            return new PageImpl(pgno, data, this);
+        }
+        detectSequential(pgno);
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
         try {
-            fc.position(offset);
-            fc.read(buf);
+            while (buf.hasRemaining()) {
+                if (fc.read(buf, offset + buf.position()) < 0) {
+                    break;
+                }
+            }
         } catch (IOException e) {
             Panic.panic(e);
         }
-        fileLock.unlock();
-        return new PageImpl(pgno, buf.array(), this);
+        // 帧是复用的，文件末尾读不满的部分要清零
+        Arrays.fill(data, buf.position(), PAGE_SIZE, (byte) 0);
+        return new PageImpl(pgno, data, this);
+    }
+
+    /**
+     * 在缺页时检测顺序访问，这几个字段只是启发式，并发访问时偶尔多读或漏读都不影响正确性
+     */
+    private void detectSequential(int pgno) {
+        if (pgno >= windowStart && pgno < windowEnd) {
+            // 预读线程还没读到这里，不重复发起
+            return;
+        }
+        if (pgno == nextMiss) {
+            windowStart = pgno + 1;
+            windowEnd = pgno + 1 + readAhead;
+            prefetch(windowStart, readAhead);
+            nextMiss = windowEnd;
+        } else {
+            nextMiss = pgno + 1;
+        }
+    }
+
+    @Override
+    public void prefetch(int pgno, int count) {
+        if (mapped != null) {
+            // mmap 模式由操作系统负责预读
+            return;
+        }
+        prefetcher.execute(() -> readAhead(pgno, count));
     }
 
     /**
-     * 脏数据写回
+     * 一次读出 [pgno, pgno + count) 中的页面，不在缓存中的放入缓存
+     */
+    private void readAhead(int pgno, int count) {
+        int end = Math.min(pgno + Math.min(count, readAhead), pageNumbers.get() + 1);
+        while (pgno < end && peek(pgno) != null) {
+            pgno++;
+        }
+        if (pgno >= end) {
+            return;
+        }
+        long epoch = writeEpoch.get();
+        ByteBuffer buf = prefetchBuf;
+        buf.clear().limit((end - pgno) * PAGE_SIZE);
+        long offset = pageOffset(pgno);
+        try {
+            while (buf.hasRemaining()) {
+                if (fc.read(buf, offset + buf.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // 预读失败不影响正常读取
+            return;
+        }
+        buf.flip();
+        for (int i = pgno; i < end && buf.remaining() >= PAGE_SIZE; i++) {
+            byte[] data = frames.borrow();
+            buf.get(data);
+            if (peek(i) != null) {
+                frames.recycle(data);
+                continue;
+            }
+            if (!preload(i, new PageImpl(i, data, this), () -> writeEpoch.get() == epoch)) {
+                frames.recycle(data);
+                if (writeEpoch.get() != epoch) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 页面移出缓存时写回脏数据，并回收它的帧
      *
      * @param pg
      */
     @Override
     protected void releaseForCache(Page pg) {
+        writeBack(pg);
+        frames.recycle(pg.getData());
+    }
+
+    private void writeBack(Page pg) {
         if (pg.isDirty()) {
-            flush(pg);
+            write(pg);
             pg.setDirty(false);
         }
     }
@@ -96,48 +279,148 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         release((long) page.getPageNumber());
     }
 
+    /**
+     * 立即写回该页并落盘
+     */
     @Override
     public void flushPage(Page pg) {
-        flush(pg);
+        write(pg);
+        sync();
+        pg.setDirty(false);
+    }
+
+    @Override
+    public long flushDirtyPages() {
+        flushLock.lock();
+        try {
+            List<Long> keys = residentKeys();
+            Collections.sort(keys);
+            long minRecLsn = Long.MAX_VALUE;
+            boolean written = false;
+            for (long key : keys) {
+                Page pg = peek(key);
+                if (pg == null || !pg.isDirty()) {
+                    continue;
+                }
+                long recLsn = pg.getRecLsn();
+                if (ifUnpinned(key, this::writeBack)) {
+                    written = true;
+                } else {
+                    // 正在被使用的页面可能只修改了一半，留给下一轮
+                    minRecLsn = Math.min(minRecLsn, recLsn);
+                }
+            }
+            if (written) {
+                sync();
+            }
+            return minRecLsn;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public void setLogFlusher(Runnable flushLog) {
+        this.logFlusher = flushLog;
+    }
+
+    @Override
+    public Map<Integer, Long> dirtyPages() {
+        Map<Integer, Long> dirty = new HashMap<>();
+        for (long key : residentKeys()) {
+            Page pg = peek(key);
+            if (pg != null && pg.isDirty()) {
+                dirty.put((int) key, pg.getRecLsn());
+            }
+        }
+        return dirty;
     }
 
     /**
-     * 将该页的内存中的数据写回物理内存中
+     * 将该页的内存中的数据写入文件，不等待落盘
      */
-    private void flush(Page pg) {
+    private void write(Page pg) {
+        Runnable flushLog = logFlusher;
+        if (flushLog != null) {
+            flushLog.run();
+        }
         int pgno = pg.getPageNumber();
         long offset = pageOffset(pgno);
+        if (mapped != null) {
+            mapped.write(offset, pg.getData());
+            return;
+        }
 
-        fileLock.lock();
+        ByteBuffer buf = ByteBuffer.wrap(pg.getData());
+        try {
+            while (buf.hasRemaining()) {
+                fc.write(buf, offset + buf.position());
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        writeEpoch.incrementAndGet();
+    }
+
+    private void sync() {
+        if (mapped != null) {
+            mapped.force();
+            return;
+        }
         try {
-            ByteBuffer buf = ByteBuffer.wrap(pg.getData());
-            fc.position(offset);
-            fc.write(buf);
             fc.force(false);
         } catch (IOException e) {
             Panic.panic(e);
-        } finally {
-            fileLock.unlock();
         }
     }
 
     /**
      * 截断
+     * 页号大于 maxPgno 的常驻页面直接丢弃，否则它们之后可能被写回到截断点之后，
+     * 或者在 newPage 重新用到这个页号时带着旧内容被取出
      */
     public void truncateByBgno(int maxPgno) {
         long size = pageOffset(maxPgno + 1);
+        fileLock.lock();
         try {
+            for (long key : residentKeys()) {
+                if (key > maxPgno) {
+                    Page pg = discard(key);
+                    if (pg != null) {
+                        frames.recycle(pg.getData());
+                    }
+                }
+            }
+            writeEpoch.incrementAndGet();  // 正在进行的预读可能读到了被截掉的页面
             file.setLength(size);
+            if (mapped != null) {
+                mapped.truncate(size);
+            }
+            pageNumbers.set(maxPgno);
         } catch (IOException e) {
             Panic.panic(e);
+        } finally {
+            fileLock.unlock();
         }
-        pageNumbers.set(maxPgno);
     }
 
     @Override
     public void close() {
+        stopped.countDown();
+        prefetcher.shutdown();
+        try {
+            flusher.join();
+            prefetcher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
         super.close();
+        sync();
         try {
+            if (mapped != null) {
+                // 映射会把文件扩展到段的末尾，关闭时截掉多出来的部分
+                file.setLength(pageOffset(pageNumbers.get() + 1));
+            }
             fc.close();
             file.close();
         } catch (IOException e) {
@@ -145,12 +428,36 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         }
     }
 
+    /**
+     * 模拟进程崩溃，只用于测试：停止后台线程后直接关闭文件，缓存中的页面不写回，也不落盘
+     * 文件锁随文件关闭释放，之后可以重新打开同一个文件
+     */
+    void abandon() {
+        stopped.countDown();
+        prefetcher.shutdownNow();
+        try {
+            flusher.join();
+            prefetcher.awaitTermination(1, TimeUnit.MINUTES);
+            fc.close();
+            file.close();
+        } catch (InterruptedException | IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    /**
+     * 页面是否常驻缓存，不增加引用计数，也不计入命中和缺页，只用于测试观察预读结果
+     */
+    boolean isCached(int pgno) {
+        return peek(pgno) != null;
+    }
+
     public int getPageNumber() {
         return pageNumbers.intValue();
     }
 
     private static long pageOffset(int pgno) {
-        return (pgno - 1) * PAGE_SIZE;
+        return (long) (pgno - 1) * PAGE_SIZE;
     }
 
 }
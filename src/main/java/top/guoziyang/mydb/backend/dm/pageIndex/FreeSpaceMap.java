@@ -0,0 +1,93 @@
+package top.guoziyang.mydb.backend.dm.pageIndex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import top.guoziyang.mydb.backend.utils.Panic;
+
+/**
+ * 空闲空间表 .fsm
+ * 正常关闭时把 PageIndex 的内容保存下来，下次正常启动时直接载入，不再逐页扫描数据库文件
+ * <p>
+ * [ValidCheck] 8 字节，保存时第一页 100~107 处的内容，用来确认这份表属于上一次正常关闭
+ * [PageNumber] 4 字节，保存时数据库文件的页数
+ * [Version]    2 字节，表的格式版本，页面格式改变时空闲空间的算法随之改变，旧版本的表不再载入
+ * [FreeSpace]  每页 2 字节，依次是第 2 页到第 PageNumber 页的空闲空间
+ */
+public class FreeSpaceMap {
+    public static final String FSM_SUFFIX = ".fsm";
+    public static final String FSM_TMP_SUFFIX = ".fsm_tmp";
+
+    private static final int LEN_VC = 8;
+    private static final short VERSION = 1;  // 普通页末尾加入 PageLsn
+    private static final int OF_FREE = LEN_VC + 4 + 2;
+
+    private String path;
+
+    public FreeSpaceMap(String path) {
+        this.path = path;
+        new File(path + FSM_TMP_SUFFIX).delete();
+    }
+
+    /**
+     * 保存 pIndex 中所有页面的空闲空间，先写临时文件再替换，保存一半时崩溃不会留下残缺的表
+     */
+    public void save(PageIndex pIndex, int pageNumber, byte[] vc) {
+        ByteBuffer buf = ByteBuffer.allocate(OF_FREE + 2 * Math.max(pageNumber - 1, 0));
+        buf.put(vc, 0, LEN_VC);
+        buf.putInt(pageNumber);
+        buf.putShort(VERSION);
+        for (PageInfo pi : pIndex.snapshot()) {
+            if (pi.pgno >= 2 && pi.pgno <= pageNumber) {
+                buf.putShort(OF_FREE + 2 * (pi.pgno - 2), (short) pi.freeSpace);
+            }
+        }
+        File tmp = new File(path + FSM_TMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(buf.array());
+            out.getFD().sync();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        try {
+            Files.move(tmp.toPath(), new File(path + FSM_SUFFIX).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    /**
+     * 载入空闲空间表到 pIndex
+     *
+     * @return 表不存在、与当前数据库文件不匹配时返回 false，pIndex 不被修改
+     */
+    public boolean load(PageIndex pIndex, int pageNumber, byte[] vc) {
+        File f = new File(path + FSM_SUFFIX);
+        if (!f.exists()) {
+            return false;
+        }
+        ByteBuffer buf;
+        try {
+            buf = ByteBuffer.wrap(Files.readAllBytes(f.toPath()));
+        } catch (IOException e) {
+            return false;
+        }
+        if (buf.limit() != OF_FREE + 2 * Math.max(pageNumber - 1, 0)) {
+            return false;
+        }
+        byte[] savedVc = new byte[LEN_VC];
+        buf.get(savedVc);
+        if (!Arrays.equals(savedVc, vc) || buf.getInt() != pageNumber || buf.getShort() != VERSION) {
+            return false;
+        }
+        for (int pgno = 2; pgno <= pageNumber; pgno++) {
+            pIndex.add(pgno, buf.getShort());
+        }
+        return true;
+    }
+}
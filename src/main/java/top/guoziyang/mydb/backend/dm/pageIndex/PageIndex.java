@@ -1,7 +1,9 @@
 package top.guoziyang.mydb.backend.dm.pageIndex;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -12,31 +14,45 @@ import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
  * MYDB 用一个比较粗略的算法实现了页面索引，将一页的空间划分成了 40 个区间。
  * 在启动时，就会遍历所有的页面信息，获取页面的空闲空间，安排到这 40 个区间中。
  * insert 在请求一个页时，会首先将所需的空间向上取整，映射到某一个区间，随后取出这个区间的任何一页，都可以满足需求
+ * <p>
+ * 每个区间是一个双端队列，由各自的锁保护，add 和 select 都是 O(1)，不同区间的操作互不阻塞；
+ * select 先看区间的计数，跳过空区间时不加锁。
+ * preferRecent 为 true 时 select 优先取出最近放回的页面，这些页面大概率还在页面缓存中。
  */
 public class PageIndex {
     // 将一页划成40个区间
     private static final int INTERVALS_NO = 40;
     private static final int THRESHOLD = PageCache.PAGE_SIZE / INTERVALS_NO;
 
-    private Lock lock;
-    private List<PageInfo>[] lists;
+    private boolean preferRecent;
+    private Lock[] locks;
+    private ArrayDeque<PageInfo>[] lists;
+    private AtomicIntegerArray sizes;   // 每个区间的页面数
 
-    @SuppressWarnings("unchecked")
     public PageIndex() {
-        lock = new ReentrantLock();
-        lists = new List[INTERVALS_NO + 1];
+        this(false);
+    }
+
+    @SuppressWarnings("unchecked")
+    public PageIndex(boolean preferRecent) {
+        this.preferRecent = preferRecent;
+        locks = new Lock[INTERVALS_NO + 1];
+        lists = new ArrayDeque[INTERVALS_NO + 1];
+        sizes = new AtomicIntegerArray(INTERVALS_NO + 1);
         for (int i = 0; i < INTERVALS_NO + 1; i++) {
-            lists[i] = new ArrayList<>();
+            locks[i] = new ReentrantLock();
+            lists[i] = new ArrayDeque<>();
         }
     }
 
     public void add(int pgno, int freeSpace) {
-        lock.lock();
+        int number = freeSpace / THRESHOLD;//该页的空闲区间个数
+        locks[number].lock();
         try {
-            int number = freeSpace / THRESHOLD;//该页的空闲区间个数
-            lists[number].add(new PageInfo(pgno, freeSpace));
+            lists[number].addLast(new PageInfo(pgno, freeSpace));
+            sizes.incrementAndGet(number);
         } finally {
-            lock.unlock();
+            locks[number].unlock();
         }
     }
 
@@ -47,22 +63,45 @@ public class PageIndex {
      * @return
      */
     public PageInfo select(int spaceSize) {
-        lock.lock();
-        try {
-            //需要多少空间 向上取整
-            int number = spaceSize / THRESHOLD;
-            if (number < INTERVALS_NO) number++;
-            while (number <= INTERVALS_NO) {
-                if (lists[number].size() == 0) { //如果该区间数量没有对应的页面 继续向上查找
-                    number++;
-                    continue;
+        //需要多少空间 向上取整
+        int number = spaceSize / THRESHOLD;
+        if (number < INTERVALS_NO) number++;
+        while (number <= INTERVALS_NO) {
+            //取出找到的页面信息  并从该记录中删除
+            if (sizes.get(number) > 0) {
+                PageInfo pi;
+                locks[number].lock();
+                try {
+                    pi = preferRecent ? lists[number].pollLast() : lists[number].pollFirst();
+                    if (pi != null) {
+                        sizes.decrementAndGet(number);
+                    }
+                } finally {
+                    locks[number].unlock();
+                }
+                if (pi != null) {
+                    return pi;
                 }
-                return lists[number].remove(0);  //返回找到的页面信息  并从该记录中删除
             }
-            return null;
-        } finally {
-            lock.unlock();
+            number++; //如果该区间数量没有对应的页面 继续向上查找
+        }
+        return null;
+    }
+
+    /**
+     * 当前索引中所有页面的副本
+     */
+    public List<PageInfo> snapshot() {
+        List<PageInfo> res = new ArrayList<>();
+        for (int i = 0; i < INTERVALS_NO + 1; i++) {
+            locks[i].lock();
+            try {
+                res.addAll(lists[i]);
+            } finally {
+                locks[i].unlock();
+            }
         }
+        return res;
     }
 
 }
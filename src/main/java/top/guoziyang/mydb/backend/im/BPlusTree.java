@@ -5,28 +5,57 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
 
 import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.DataManager;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
 import top.guoziyang.mydb.backend.im.Node.InsertAndSplitRes;
-import top.guoziyang.mydb.backend.im.Node.LeafSearchRangeRes;
 import top.guoziyang.mydb.backend.im.Node.SearchNextRes;
 import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
 import top.guoziyang.mydb.backend.utils.Parser;
+import top.guoziyang.mydb.common.Error;
 
 public class BPlusTree {
     DataManager dm;
     long bootUid;
     DataItem bootDataItem;
     Lock bootLock;
+    int balance;
 
     public static long create(DataManager dm) throws Exception {
-        byte[] rawRoot = Node.newNilRootRaw();
+        return create(dm, Node.BALANCE_NUMBER);
+    }
+
+    /**
+     * @param balance 节点最多有 2*balance 个键，最大为 Node.MAX_BALANCE_NUMBER，此时一个节点几乎占满一页
+     *                节点越大树越矮，但每次修改节点都要把整个节点的新旧内容写入日志
+     */
+    public static long create(DataManager dm, int balance) throws Exception {
+        if(balance < 2 || balance > Node.MAX_BALANCE_NUMBER) {
+            throw Error.InvalidFanoutException;
+        }
+        byte[] rawRoot = Node.newNilRootRaw(balance);
         long rootUid = dm.insert(TransactionManagerImpl.SUPER_XID, rawRoot);
         return dm.insert(TransactionManagerImpl.SUPER_XID, Parser.long2Byte(rootUid));
     }
 
+    public static long bulkLoad(DataManager dm, KeyUidStream entries) throws Exception {
+        return bulkLoad(dm, Node.BALANCE_NUMBER, entries);
+    }
+
+    /**
+     * 从按 key 升序排列的 (key, uid) 建立一棵新树，返回值和 create 一样，用 load 加载
+     * 节点自底向上逐个写入，每个节点只记录一条插入日志，且不等待落盘，最后写入 boot 时一起落盘
+     */
+    public static long bulkLoad(DataManager dm, int balance, KeyUidStream entries) throws Exception {
+        if(balance < 2 || balance > Node.MAX_BALANCE_NUMBER) {
+            throw Error.InvalidFanoutException;
+        }
+        long rootUid = new BulkLoader(dm, balance).load(entries);
+        return dm.insert(TransactionManagerImpl.SUPER_XID, Parser.long2Byte(rootUid));
+    }
+
     public static BPlusTree load(long bootUid, DataManager dm) throws Exception {
         DataItem bootDataItem = dm.read(bootUid);
         assert bootDataItem != null;
@@ -35,53 +64,69 @@ public class BPlusTree {
         t.dm = dm;
         t.bootDataItem = bootDataItem;
         t.bootLock = new ReentrantLock();
+        Node root = Node.loadNode(t, t.rootUid());
+        t.balance = Node.getRawBalance(root.raw);
+        root.release();
         return t;
     }
 
-    private long rootUid() {
-        bootLock.lock();
-        try {
-            SubArray sa = bootDataItem.data();
-            return Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start, sa.start+8));
-        } finally {
-            bootLock.unlock();
+    // 根节点 uid 和节点一样用版本号乐观读，bootLock 只用于串行化换根
+    long rootUid() {
+        StampedLock latch = Node.latch(bootUid);
+        SubArray sa = bootDataItem.data();
+        while(true) {
+            long stamp = Node.optimisticRead(latch);
+            long rootUid = Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start, sa.start+8));
+            if(latch.validate(stamp)) return rootUid;
         }
     }
 
     private void updateRootUid(long left, long right, long rightKey) throws Exception {
         bootLock.lock();
         try {
-            byte[] rootRaw = Node.newRootRaw(left, right, rightKey);
+            byte[] rootRaw = Node.newRootRaw(left, right, rightKey, balance);
             long newRootUid = dm.insert(TransactionManagerImpl.SUPER_XID, rootRaw);
             bootDataItem.before();
             SubArray diRaw = bootDataItem.data();
+            StampedLock latch = Node.latch(bootUid);
+            long stamp = latch.writeLock();
             System.arraycopy(Parser.long2Byte(newRootUid), 0, diRaw.raw, diRaw.start, 8);
+            latch.unlockWrite(stamp);
             bootDataItem.after(TransactionManagerImpl.SUPER_XID);
         } finally {
             bootLock.unlock();
         }
     }
 
-    private long searchLeaf(long nodeUid, long key) throws Exception {
-        Node node = Node.loadNode(this, nodeUid);
-        boolean isLeaf = node.isLeaf();
-        node.release();
-
-        if(isLeaf) {
-            return nodeUid;
-        } else {
-            long next = searchNext(nodeUid, key);
-            return searchLeaf(next, key);
+    // 每个经过的节点只读取一次：同一次读中得到它是否为叶子和下一步的去向
+    long searchLeaf(long nodeUid, long key) throws Exception {
+        while(true) {
+            Node node = Node.loadNode(this, nodeUid);
+            SearchNextRes res = node.searchNext(key);
+            node.release();
+            if(res.isLeaf) {
+                return nodeUid;
+            }
+            nodeUid = res.uid != 0 ? res.uid : res.siblingUid;
         }
     }
 
-    private long searchNext(long nodeUid, long key) throws Exception {
+    /**
+     * 树的高度，只有根节点时为 1
+     */
+    public int depth() throws Exception {
+        int depth = 1;
+        long nodeUid = rootUid();
         while(true) {
             Node node = Node.loadNode(this, nodeUid);
-            SearchNextRes res = node.searchNext(key);
+            boolean isLeaf = node.isLeaf();
+            long son = isLeaf ? 0 : node.firstSon();
             node.release();
-            if(res.uid != 0) return res.uid;
-            nodeUid = res.siblingUid;
+            if(isLeaf) {
+                return depth;
+            }
+            nodeUid = son;
+            depth ++;
         }
     }
 
@@ -90,23 +135,22 @@ public class BPlusTree {
     }
 
     public List<Long> searchRange(long leftKey, long rightKey) throws Exception {
-        long rootUid = rootUid();
-        long leafUid = searchLeaf(rootUid, leftKey);
         List<Long> uids = new ArrayList<>();
-        while(true) {
-            Node leaf = Node.loadNode(this, leafUid);
-            LeafSearchRangeRes res = leaf.leafSearchRange(leftKey, rightKey);
-            leaf.release();
-            uids.addAll(res.uids);
-            if(res.siblingUid == 0) {
-                break;
-            } else {
-                leafUid = res.siblingUid;
-            }
+        KeyUidStream cursor = scan(leftKey, rightKey);
+        while(cursor.next()) {
+            uids.add(cursor.uid());
         }
         return uids;
     }
 
+    /**
+     * 按键的顺序逐个读出 [leftKey, rightKey] 内的 (key, uid)，读取时才访问叶子，可以随时停止，不需要关闭
+     * 内存占用只和节点大小有关，和范围内的键数无关
+     */
+    public KeyUidStream scan(long leftKey, long rightKey) {
+        return new RangeCursor(this, leftKey, rightKey);
+    }
+
     public void insert(long key, long uid) throws Exception {
         long rootUid = rootUid();
         InsertRes res = insert(rootUid, uid, key);
@@ -121,16 +165,22 @@ public class BPlusTree {
     }
 
     private InsertRes insert(long nodeUid, long uid, long key) throws Exception {
-        Node node = Node.loadNode(this, nodeUid);
-        boolean isLeaf = node.isLeaf();
-        node.release();
+        SearchNextRes next;
+        while(true) {
+            Node node = Node.loadNode(this, nodeUid);
+            next = node.searchNext(key);
+            node.release();
+            if(next.isLeaf || next.uid != 0) {
+                break;
+            }
+            nodeUid = next.siblingUid;
+        }
 
         InsertRes res = null;
-        if(isLeaf) {
+        if(next.isLeaf) {
             res = insertAndSplit(nodeUid, uid, key);
         } else {
-            long next = searchNext(nodeUid, key);
-            InsertRes ir = insert(next, uid, key);
+            InsertRes ir = insert(next.uid, uid, key);
             if(ir.newNode != 0) {
                 res = insertAndSplit(nodeUid, ir.newNode, ir.newKey);
             } else {
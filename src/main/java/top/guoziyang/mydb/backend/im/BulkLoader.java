@@ -0,0 +1,110 @@
+package top.guoziyang.mydb.backend.im;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import top.guoziyang.mydb.backend.common.SubArray;
+import top.guoziyang.mydb.backend.dm.DataManager;
+import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
+import top.guoziyang.mydb.common.Error;
+
+/**
+ * 自底向上地从有序的 (key, uid) 建立一棵 B+ 树
+ * <p>
+ * 每一层只保留一个正在填充的节点。节点填满后，先为右兄弟预留位置拿到它的 uid，
+ * 再把填满的节点连同指向右兄弟的指针一次写入，写入只记录一条插入日志，
+ * 然后把 (节点 uid, 上界) 交给上一层，和分裂时一样，上界是右边下一个子树中的最小键。
+ * 每个节点填到 2*balance-1 个键，这是插入不会触发分裂的最大键数
+ */
+class BulkLoader {
+
+    private class Level {
+        SubArray raw;
+        long uid;
+        int noKeys;
+        boolean single = true;  // 这一层目前只有这一个节点
+    }
+
+    private final DataManager dm;
+    private final int balance;
+    private final int size;
+    private final List<Level> levels = new ArrayList<>();
+
+    BulkLoader(DataManager dm, int balance) {
+        this.dm = dm;
+        this.balance = balance;
+        this.size = Node.nodeSize(balance);
+    }
+
+    /**
+     * @return 根节点的 uid
+     */
+    long load(KeyUidStream entries) throws Exception {
+        boolean first = true;
+        long lastKey = 0;
+        while(entries.next()) {
+            long key = entries.key();
+            if(!first && key < lastKey) {
+                throw Error.BulkLoadUnsortedException;
+            }
+            add(0, entries.uid(), key);
+            first = false;
+            lastKey = key;
+        }
+        return finish();
+    }
+
+    private Level level(int height) throws Exception {
+        if(height == levels.size()) {
+            Level l = new Level();
+            l.raw = newNode(height == 0);
+            l.uid = dm.reserve(size);
+            levels.add(l);
+        }
+        return levels.get(height);
+    }
+
+    private SubArray newNode(boolean isLeaf) {
+        SubArray raw = new SubArray(new byte[size], 0, size);
+        Node.setRawIsLeaf(raw, isLeaf);
+        Node.setRawNoKeys(raw, 0);
+        Node.setRawSibling(raw, 0);
+        return raw;
+    }
+
+    private void add(int height, long son, long key) throws Exception {
+        Level l = level(height);
+        if(l.noKeys == balance*2 - 1) {
+            // 叶子的上界是下一个键，内部节点的上界是它最后一个子节点的上界
+            long upper = height == 0 ? key : Node.getRawKthKey(l.raw, l.noKeys-1);
+            long sibling = dm.reserve(size);
+            write(l, sibling);
+            add(height+1, l.uid, upper);
+            l.raw = newNode(height == 0);
+            l.uid = sibling;
+            l.noKeys = 0;
+            l.single = false;
+        }
+        Node.setRawKthSon(l.raw, son, l.noKeys);
+        Node.setRawKthKey(l.raw, key, l.noKeys);
+        l.noKeys ++;
+    }
+
+    private void write(Level l, long sibling) throws Exception {
+        Node.setRawNoKeys(l.raw, l.noKeys);
+        Node.setRawSibling(l.raw, sibling);
+        dm.insertReserved(TransactionManagerImpl.SUPER_XID, l.uid, l.raw.raw);
+    }
+
+    // 每一层最右边的节点上界为 Long.MAX_VALUE，写到只有一个节点的那一层为止，它就是根
+    private long finish() throws Exception {
+        for(int height = 0; ; height ++) {
+            Level l = level(height);
+            write(l, 0);
+            if(l.single && height == levels.size() - 1) {
+                return l.uid;
+            }
+            add(height+1, l.uid, Long.MAX_VALUE);
+        }
+    }
+}
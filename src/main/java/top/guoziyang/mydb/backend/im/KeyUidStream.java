@@ -0,0 +1,47 @@
+package top.guoziyang.mydb.backend.im;
+
+/**
+ * 一串 (key, uid) 对，逐个读取，不为每一对分配对象
+ * 调用 next 移到下一对后，用 key、uid 读取它
+ */
+public interface KeyUidStream {
+    /**
+     * 移到下一对，没有更多时返回 false
+     */
+    boolean next() throws Exception;
+
+    long key();
+
+    long uid();
+
+    /**
+     * 先读完 first 再读 second
+     */
+    static KeyUidStream concat(KeyUidStream first, KeyUidStream second) {
+        return new KeyUidStream() {
+            private KeyUidStream current = first;
+
+            @Override
+            public boolean next() throws Exception {
+                if(current.next()) {
+                    return true;
+                }
+                if(current == first) {
+                    current = second;
+                    return current.next();
+                }
+                return false;
+            }
+
+            @Override
+            public long key() {
+                return current.key();
+            }
+
+            @Override
+            public long uid() {
+                return current.uid();
+            }
+        };
+    }
+}
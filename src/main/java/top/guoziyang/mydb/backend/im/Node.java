@@ -1,18 +1,25 @@
 package top.guoziyang.mydb.backend.im;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.StampedLock;
 
 import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.dm.page.PageX;
 import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
-import top.guoziyang.mydb.backend.utils.Parser;
 
 /**
  * Node结构如下：
  * [LeafFlag][KeyNumber][SiblingUid]
  * [Son0][Key0][Son1][Key1]...[SonN][KeyN]
+ * 节点内的键有序，查找用二分；字段直接在 DataItem 的数组上按大端读写，不拷贝
+ * 节点最多有 2*BalanceNumber 个键，BalanceNumber 由每棵树创建时决定，
+ * 节点的长度即 DataItem 的长度由它决定，读取节点时反过来从长度算出 BalanceNumber
+ * <p>
+ * 读节点不加锁：每个节点对应一个带版本号的 StampedLock（按 uid 分段共用），
+ * 读者记下版本号后直接读，读完版本号没变才采用结果，否则重读；写者修改节点期间持有它的写锁
  */
 public class Node {
     static final int IS_LEAF_OFFSET = 0;
@@ -20,8 +27,33 @@ public class Node {
     static final int SIBLING_OFFSET = NO_KEYS_OFFSET+2;
     static final int NODE_HEADER_SIZE = SIBLING_OFFSET+8;
 
-    static final int BALANCE_NUMBER = 32;
-    static final int NODE_SIZE = NODE_HEADER_SIZE + (2*8)*(BALANCE_NUMBER*2+2);
+    static final int BALANCE_NUMBER = 32;  // 默认值，之前的版本固定使用这个值
+    // 节点连同 DataItem 的 3 字节头部不能超过一页的可用空间
+    static final int MAX_BALANCE_NUMBER = ((PageX.MAX_FREE_SPACE - 3 - NODE_HEADER_SIZE) / (2*8) - 2) / 2;
+
+    static int nodeSize(int balance) {
+        return NODE_HEADER_SIZE + (2*8)*(balance*2+2);
+    }
+
+    static int getRawBalance(SubArray raw) {
+        return ((raw.end - raw.start - NODE_HEADER_SIZE) / (2*8) - 2) / 2;
+    }
+
+    private static final int LATCH_STRIPES = 1024;  // 必须是 2 的幂
+    private static final StampedLock[] LATCHES = new StampedLock[LATCH_STRIPES];
+    static {
+        for(int i = 0; i < LATCH_STRIPES; i ++) {
+            LATCHES[i] = new StampedLock();
+        }
+    }
+
+    static StampedLock latch(long uid) {
+        long h = uid * 0x9E3779B97F4A7C15L;
+        return LATCHES[(int)(h >>> 54) & (LATCH_STRIPES - 1)];
+    }
+
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
 
     BPlusTree tree;
     DataItem dataItem;
@@ -41,39 +73,72 @@ public class Node {
     }
 
     static void setRawNoKeys(SubArray raw, int noKeys) {
-        System.arraycopy(Parser.short2Byte((short)noKeys), 0, raw.raw, raw.start+NO_KEYS_OFFSET, 2);
+        SHORT.set(raw.raw, raw.start+NO_KEYS_OFFSET, (short)noKeys);
     }
 
     static int getRawNoKeys(SubArray raw) {
-        return (int)Parser.parseShort(Arrays.copyOfRange(raw.raw, raw.start+NO_KEYS_OFFSET, raw.start+NO_KEYS_OFFSET+2));
+        return (short)SHORT.get(raw.raw, raw.start+NO_KEYS_OFFSET);
+    }
+
+    // 乐观读可能读到写了一半的键数，限制在节点容量内，保证不会越界，结果由版本号校验丢弃
+    static int getRawNoKeysBounded(SubArray raw) {
+        return Math.max(0, Math.min(getRawNoKeys(raw), getRawBalance(raw)*2));
     }
 
     static void setRawSibling(SubArray raw, long sibling) {
-        System.arraycopy(Parser.long2Byte(sibling), 0, raw.raw, raw.start+SIBLING_OFFSET, 8);
+        LONG.set(raw.raw, raw.start+SIBLING_OFFSET, sibling);
     }
 
     static long getRawSibling(SubArray raw) {
-        return Parser.parseLong(Arrays.copyOfRange(raw.raw, raw.start+SIBLING_OFFSET, raw.start+SIBLING_OFFSET+8));
+        return (long)LONG.get(raw.raw, raw.start+SIBLING_OFFSET);
     }
 
     static void setRawKthSon(SubArray raw, long uid, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2);
-        System.arraycopy(Parser.long2Byte(uid), 0, raw.raw, offset, 8);
+        LONG.set(raw.raw, offset, uid);
     }
 
     static long getRawKthSon(SubArray raw, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2);
-        return Parser.parseLong(Arrays.copyOfRange(raw.raw, offset, offset+8));
+        return (long)LONG.get(raw.raw, offset);
     }
 
     static void setRawKthKey(SubArray raw, long key, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2)+8;
-        System.arraycopy(Parser.long2Byte(key), 0, raw.raw, offset, 8);
+        LONG.set(raw.raw, offset, key);
     }
 
     static long getRawKthKey(SubArray raw, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2)+8;
-        return Parser.parseLong(Arrays.copyOfRange(raw.raw, offset, offset+8));
+        return (long)LONG.get(raw.raw, offset);
+    }
+
+    // 第一个不小于 key 的键的位置，没有时返回 noKeys
+    static int lowerBound(SubArray raw, int noKeys, long key) {
+        int lo = 0, hi = noKeys;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(getRawKthKey(raw, mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // 第一个大于 key 的键的位置，没有时返回 noKeys
+    static int upperBound(SubArray raw, int noKeys, long key) {
+        int lo = 0, hi = noKeys;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(getRawKthKey(raw, mid) <= key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
     }
 
     static void copyRawFromKth(SubArray from, SubArray to, int kth) {
@@ -83,14 +148,13 @@ public class Node {
 
     static void shiftRawKth(SubArray raw, int kth) {
         int begin = raw.start+NODE_HEADER_SIZE+(kth+1)*(8*2);
-        int end = raw.start+NODE_SIZE-1;
-        for(int i = end; i >= begin; i --) {
-            raw.raw[i] = raw.raw[i-(8*2)];
-        }
+        int end = raw.end;
+        System.arraycopy(raw.raw, begin-(8*2), raw.raw, begin, end-begin);
     }
 
-    static byte[] newRootRaw(long left, long right, long key)  {
-        SubArray raw = new SubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
+    static byte[] newRootRaw(long left, long right, long key, int balance)  {
+        int size = nodeSize(balance);
+        SubArray raw = new SubArray(new byte[size], 0, size);
 
         setRawIsLeaf(raw, false);
         setRawNoKeys(raw, 2);
@@ -103,8 +167,9 @@ public class Node {
         return raw.raw;
     }
 
-    static byte[] newNilRootRaw()  {
-        SubArray raw = new SubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
+    static byte[] newNilRootRaw(int balance)  {
+        int size = nodeSize(balance);
+        SubArray raw = new SubArray(new byte[size], 0, size);
 
         setRawIsLeaf(raw, true);
         setRawNoKeys(raw, 0);
@@ -128,64 +193,87 @@ public class Node {
         dataItem.release();
     }
 
+    /**
+     * 取得一个乐观读的版本号，有写者时等它修改完
+     * 写者持有写锁的时间只是几次数组拷贝，等待时短暂加读锁而不是自旋
+     */
+    static long optimisticRead(StampedLock latch) {
+        long stamp;
+        while((stamp = latch.tryOptimisticRead()) == 0) {
+            latch.unlockRead(latch.readLock());
+        }
+        return stamp;
+    }
+
     public boolean isLeaf() {
-        dataItem.rLock();
-        try {
-            return getRawIfLeaf(raw);
-        } finally {
-            dataItem.rUnLock();
+        StampedLock latch = latch(uid);
+        while(true) {
+            long stamp = optimisticRead(latch);
+            boolean isLeaf = getRawIfLeaf(raw);
+            if(latch.validate(stamp)) return isLeaf;
+        }
+    }
+
+    public long firstSon() {
+        StampedLock latch = latch(uid);
+        while(true) {
+            long stamp = optimisticRead(latch);
+            long son = getRawKthSon(raw, 0);
+            if(latch.validate(stamp)) return son;
         }
     }
 
     class SearchNextRes {
+        boolean isLeaf;
         long uid;
         long siblingUid;
     }
 
+    /**
+     * 在一次读中同时给出节点是否为叶子，以及下一步要访问的子节点或兄弟节点
+     */
     public SearchNextRes searchNext(long key) {
-        dataItem.rLock();
-        try {
-            SearchNextRes res = new SearchNextRes();
-            int noKeys = getRawNoKeys(raw);
-            for(int i = 0; i < noKeys; i ++) {
-                long ik = getRawKthKey(raw, i);
-                if(key < ik) {
-                    res.uid = getRawKthSon(raw, i);
-                    res.siblingUid = 0;
-                    return res;
-                }
+        StampedLock latch = latch(uid);
+        SearchNextRes res = new SearchNextRes();
+        while(true) {
+            long stamp = optimisticRead(latch);
+            res.isLeaf = getRawIfLeaf(raw);
+            int noKeys = getRawNoKeysBounded(raw);
+            int kth = upperBound(raw, noKeys, key);
+            if(kth < noKeys) {
+                res.uid = getRawKthSon(raw, kth);
+                res.siblingUid = 0;
+            } else {
+                res.uid = 0;
+                res.siblingUid = getRawSibling(raw);
             }
-            res.uid = 0;
-            res.siblingUid = getRawSibling(raw);
-            return res;
-
-        } finally {
-            dataItem.rUnLock();
+            if(latch.validate(stamp)) return res;
         }
     }
 
-    class LeafSearchRangeRes {
-        List<Long> uids;
+    class LeafScanRes {
+        int count;
         long siblingUid;
     }
 
-    public LeafSearchRangeRes leafSearchRange(long leftKey, long rightKey) {
-        dataItem.rLock();
-        try {
-            int noKeys = getRawNoKeys(raw);
-            int kth = 0;
-            while(kth < noKeys) {
-                long ik = getRawKthKey(raw, kth);
-                if(ik >= leftKey) {
-                    break;
-                }
-                kth ++;
-            }
-            List<Long> uids = new ArrayList<>();
+    /**
+     * 把叶子中 [leftKey, rightKey] 内的键和 uid 依次拷贝到 keys、uids 中，数组长度不小于节点的容量
+     * 叶子中没有大于 rightKey 的键时，范围可能延续到右兄弟，同时返回它的 uid，否则为 0
+     */
+    public LeafScanRes leafScan(long leftKey, long rightKey, long[] keys, long[] uids) {
+        StampedLock latch = latch(uid);
+        LeafScanRes res = new LeafScanRes();
+        while(true) {
+            long stamp = optimisticRead(latch);
+            int noKeys = getRawNoKeysBounded(raw);
+            int kth = lowerBound(raw, noKeys, leftKey);
+            int count = 0;
             while(kth < noKeys) {
                 long ik = getRawKthKey(raw, kth);
                 if(ik <= rightKey) {
-                    uids.add(getRawKthSon(raw, kth));
+                    keys[count] = ik;
+                    uids[count] = getRawKthSon(raw, kth);
+                    count ++;
                     kth ++;
                 } else {
                     break;
@@ -195,12 +283,11 @@ public class Node {
             if(kth == noKeys) {
                 siblingUid = getRawSibling(raw);
             }
-            LeafSearchRangeRes res = new LeafSearchRangeRes();
-            res.uids = uids;
-            res.siblingUid = siblingUid;
-            return res;
-        } finally {
-            dataItem.rUnLock();
+            if(latch.validate(stamp)) {
+                res.count = count;
+                res.siblingUid = siblingUid;
+                return res;
+            }
         }
     }
 
@@ -237,42 +324,44 @@ public class Node {
             if(err == null && success) {
                 dataItem.after(TransactionManagerImpl.SUPER_XID);
             } else {
+                StampedLock latch = latch(this.uid);
+                long stamp = latch.writeLock();
                 dataItem.unBefore();
+                latch.unlockWrite(stamp);
             }
         }
     }
 
     private boolean insert(long uid, long key) {
         int noKeys = getRawNoKeys(raw);
-        int kth = 0;
-        while(kth < noKeys) {
-            long ik = getRawKthKey(raw, kth);
-            if(ik < key) {
-                kth ++;
-            } else {
-                break;
-            }
-        }
+        int kth = lowerBound(raw, noKeys, key);
         if(kth == noKeys && getRawSibling(raw) != 0) return false;
 
-        if(getRawIfLeaf(raw)) {
-            shiftRawKth(raw, kth);
-            setRawKthKey(raw, key, kth);
-            setRawKthSon(raw, uid, kth);
-            setRawNoKeys(raw, noKeys+1);
-        } else {
-            long kk = getRawKthKey(raw, kth);
-            setRawKthKey(raw, key, kth);
-            shiftRawKth(raw, kth+1);
-            setRawKthKey(raw, kk, kth+1);
-            setRawKthSon(raw, uid, kth+1);
-            setRawNoKeys(raw, noKeys+1);
+        // 持有 DataItem 的写锁时节点不会被其他写者修改，只有改动内容时需要阻止乐观读
+        StampedLock latch = latch(this.uid);
+        long stamp = latch.writeLock();
+        try {
+            if(getRawIfLeaf(raw)) {
+                shiftRawKth(raw, kth);
+                setRawKthKey(raw, key, kth);
+                setRawKthSon(raw, uid, kth);
+                setRawNoKeys(raw, noKeys+1);
+            } else {
+                long kk = getRawKthKey(raw, kth);
+                setRawKthKey(raw, key, kth);
+                shiftRawKth(raw, kth+1);
+                setRawKthKey(raw, kk, kth+1);
+                setRawKthSon(raw, uid, kth+1);
+                setRawNoKeys(raw, noKeys+1);
+            }
+        } finally {
+            latch.unlockWrite(stamp);
         }
         return true;
     }
 
     private boolean needSplit() {
-        return BALANCE_NUMBER*2 == getRawNoKeys(raw);
+        return getRawBalance(raw)*2 == getRawNoKeys(raw);
     }
 
     class SplitRes {
@@ -280,14 +369,23 @@ public class Node {
     }
 
     private SplitRes split() throws Exception {
-        SubArray nodeRaw = new SubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
+        int balance = getRawBalance(raw);
+        int size = nodeSize(balance);
+        SubArray nodeRaw = new SubArray(new byte[size], 0, size);
         setRawIsLeaf(nodeRaw, getRawIfLeaf(raw));
-        setRawNoKeys(nodeRaw, BALANCE_NUMBER);
+        setRawNoKeys(nodeRaw, balance);
         setRawSibling(nodeRaw, getRawSibling(raw));
-        copyRawFromKth(raw, nodeRaw, BALANCE_NUMBER);
+        copyRawFromKth(raw, nodeRaw, balance);
+        // 新节点写入日志时不持有版本锁，读者此时看到的是插入后、分裂前的节点，仍然是完整的
         long son = tree.dm.insert(TransactionManagerImpl.SUPER_XID, nodeRaw.raw);
-        setRawNoKeys(raw, BALANCE_NUMBER);
-        setRawSibling(raw, son);
+        StampedLock latch = latch(this.uid);
+        long stamp = latch.writeLock();
+        try {
+            setRawNoKeys(raw, balance);
+            setRawSibling(raw, son);
+        } finally {
+            latch.unlockWrite(stamp);
+        }
 
         SplitRes res = new SplitRes();
         res.newSon = son;
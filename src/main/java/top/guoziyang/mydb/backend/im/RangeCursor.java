@@ -0,0 +1,68 @@
+package top.guoziyang.mydb.backend.im;
+
+import top.guoziyang.mydb.backend.im.Node.LeafScanRes;
+
+/**
+ * BPlusTree.scan 返回的游标，沿着叶子的兄弟指针前进
+ * 每次把一个叶子中符合条件的部分拷贝到缓冲区，读完再读下一个叶子，两次 next 之间不持有任何节点
+ * 拷贝之后叶子分裂出去的部分已经在缓冲区中，之后插入的键可能读不到
+ */
+class RangeCursor implements KeyUidStream {
+    private final BPlusTree tree;
+    private final long leftKey, rightKey;
+
+    private long[] keys = new long[0];
+    private long[] uids = new long[0];
+    private int count, pos = -1;
+    private boolean started;
+    private long nextLeaf;  // 下一个要读的叶子，为 0 时没有
+
+    RangeCursor(BPlusTree tree, long leftKey, long rightKey) {
+        this.tree = tree;
+        this.leftKey = leftKey;
+        this.rightKey = rightKey;
+    }
+
+    @Override
+    public boolean next() throws Exception {
+        pos ++;
+        while(pos >= count) {
+            long leafUid;
+            if(!started) {
+                started = true;
+                leafUid = tree.searchLeaf(tree.rootUid(), leftKey);
+            } else if(nextLeaf != 0) {
+                leafUid = nextLeaf;
+            } else {
+                pos = count;
+                return false;
+            }
+            Node leaf = Node.loadNode(tree, leafUid);
+            LeafScanRes res;
+            try {
+                int capacity = Node.getRawBalance(leaf.raw) * 2;
+                if(keys.length < capacity) {
+                    keys = new long[capacity];
+                    uids = new long[capacity];
+                }
+                res = leaf.leafScan(leftKey, rightKey, keys, uids);
+            } finally {
+                leaf.release();
+            }
+            count = res.count;
+            nextLeaf = res.siblingUid;
+            pos = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public long key() {
+        return keys[pos];
+    }
+
+    @Override
+    public long uid() {
+        return uids[pos];
+    }
+}
@@ -1,11 +1,11 @@
 package top.guoziyang.mydb.backend.tbm;
 
 import java.util.Arrays;
-import java.util.List;
 
 import com.google.common.primitives.Bytes;
 
 import top.guoziyang.mydb.backend.im.BPlusTree;
+import top.guoziyang.mydb.backend.im.KeyUidStream;
 import top.guoziyang.mydb.backend.parser.statement.SingleExpression;
 import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
 import top.guoziyang.mydb.backend.utils.Panic;
@@ -104,8 +104,8 @@ public class Field {
         bt.insert(uKey, uid);
     }
 
-    public List<Long> search(long left, long right) throws Exception {
-        return bt.searchRange(left, right);
+    public KeyUidStream scan(long left, long right) {
+        return bt.scan(left, right);
     }
 
     public Object string2Value(String str) {
@@ -8,6 +8,7 @@ import java.util.Map;
 
 import com.google.common.primitives.Bytes;
 
+import top.guoziyang.mydb.backend.im.KeyUidStream;
 import top.guoziyang.mydb.backend.parser.statement.Create;
 import top.guoziyang.mydb.backend.parser.statement.Delete;
 import top.guoziyang.mydb.backend.parser.statement.Insert;
@@ -104,10 +105,10 @@ public class Table {
     }
 
     public int delete(long xid, Delete delete) throws Exception {
-        List<Long> uids = parseWhere(delete.where);
+        KeyUidStream uids = parseWhere(delete.where);
         int count = 0;
-        for (Long uid : uids) {
-            if(((TableManagerImpl)tbm).vm.delete(xid, uid)) {
+        while (uids.next()) {
+            if(((TableManagerImpl)tbm).vm.delete(xid, uids.uid())) {
                 count ++;
             }
         }
@@ -115,7 +116,12 @@ public class Table {
     }
 
     public int update(long xid, Update update) throws Exception {
-        List<Long> uids = parseWhere(update.where);
+        // 更新会把新记录插入正在扫描的索引，边扫描边更新可能再次读到新记录，先取出所有 uid
+        List<Long> uids = new ArrayList<>();
+        KeyUidStream cursor = parseWhere(update.where);
+        while (cursor.next()) {
+            uids.add(cursor.uid());
+        }
         Field fd = null;
         for (Field f : fields) {
             if(f.fieldName.equals(update.fieldName)) {
@@ -151,10 +157,10 @@ public class Table {
     }
 
     public String read(long xid, Select read) throws Exception {
-        List<Long> uids = parseWhere(read.where);
+        KeyUidStream uids = parseWhere(read.where);
         StringBuilder sb = new StringBuilder();
-        for (Long uid : uids) {
-            byte[] raw = ((TableManagerImpl)tbm).vm.read(xid, uid);
+        while (uids.next()) {
+            byte[] raw = ((TableManagerImpl)tbm).vm.read(xid, uids.uid());
             if(raw == null) continue;
             Map<String, Object> entry = parseEntry(raw);
             sb.append(printEntry(entry)).append("\n");
@@ -186,7 +192,8 @@ public class Table {
         return entry;
     }
 
-    private List<Long> parseWhere(Where where) throws Exception {
+    // 符合条件的记录的 uid，逐个从索引中读出
+    private KeyUidStream parseWhere(Where where) throws Exception {
         long l0=0, r0=0, l1=0, r1=0;
         boolean single = false;
         Field fd = null;
@@ -218,10 +225,9 @@ public class Table {
             l1 = res.l1; r1 = res.r1;
             single = res.single;
         }
-        List<Long> uids = fd.search(l0, r0);
+        KeyUidStream uids = fd.scan(l0, r0);
         if(!single) {
-            List<Long> tmp = fd.search(l1, r1);
-            uids.addAll(tmp);
+            uids = KeyUidStream.concat(uids, fd.scan(l1, r1));
         }
         return uids;
     }
@@ -29,6 +29,8 @@ public interface TransactionManager {
 
     boolean isAborted(long xid); // 查询一个事务的状态是否是已取消
 
+    void flush(); // 把延迟写入的事务状态落盘
+
     void close();  //关闭事务
 
     /**
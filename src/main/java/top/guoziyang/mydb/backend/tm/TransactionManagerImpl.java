@@ -13,7 +13,7 @@ import top.guoziyang.mydb.common.Error;
 
 public class TransactionManagerImpl implements TransactionManager {
 
-    // XID文件头长度 8各字节
+    // XID文件头长度 8各字节，记录已经分配出去的最大 xid
     static final int LEN_XID_HEADER_LENGTH = 8;
     /**
      *每个事务的占用长度  一个字节
@@ -22,6 +22,12 @@ public class TransactionManagerImpl implements TransactionManager {
      */
     private static final int XID_FIELD_SIZE = 1;
 
+    /**
+     * xid 按块分配：文件一次扩展一块，文件头一次推进一块，每块只落盘一次，begin 本身不写文件
+     * 崩溃后块中没有用到的 xid 不再分配，正常关闭时文件头和文件长度退回到实际用到的 xid
+     */
+    private static final int XID_BLOCK = 1024;
+
     // 事务的三种状态
     private static final byte FIELD_TRAN_ACTIVE = 0;//创建
     private static final byte FIELD_TRAN_COMMITTED = 1;//已提交
@@ -34,8 +40,10 @@ public class TransactionManagerImpl implements TransactionManager {
 
     private RandomAccessFile file;
     private FileChannel fc;
-    private long xidCounter;//所有xid的统计
+    private long xidCounter;//已经开始的最大 xid
+    private long xidLimit;//文件头记录的已分配的最大 xid
     private Lock counterLock;
+    private XidStatusTable statuses;//所有事务状态在内存中的副本，查询状态不再读文件
 
     /**
      * @param raf XID 文件
@@ -45,7 +53,9 @@ public class TransactionManagerImpl implements TransactionManager {
         this.file = raf;
         this.fc = fc;
         counterLock = new ReentrantLock();
+        statuses = new XidStatusTable();
         checkXIDCounter();
+        loadStatuses();
     }
 
     /**
@@ -66,69 +76,86 @@ public class TransactionManagerImpl implements TransactionManager {
 
         ByteBuffer buf = ByteBuffer.allocate(LEN_XID_HEADER_LENGTH);
         try {
-            fc.position(0);  //将读取指针放在文件开始部分
-            fc.read(buf);    //读取文件头
+            fc.read(buf, 0);    //读取文件头
         } catch (IOException e) {
             Panic.panic(e);
         }
         //解析文件头个数
-        this.xidCounter = Parser.parseLong(buf.array());
+        this.xidLimit = Parser.parseLong(buf.array());
+        this.xidCounter = xidLimit;
         //获得结尾的指针位置
-        long end = getXidPosition(this.xidCounter + 1);
+        long end = getXidPosition(this.xidLimit + 1);
         if (end != fileLen) {//长度是否符合
             Panic.panic(Error.BadXIDFileException);
         }
     }
 
+    // 启动时把 XID 文件中所有事务的状态读入内存
+    private void loadStatuses() {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        long xid = 1;
+        try {
+            while (xid <= xidCounter) {
+                buf.clear();
+                int n = fc.read(buf, getXidPosition(xid));
+                if (n <= 0) {
+                    Panic.panic(Error.BadXIDFileException);
+                }
+                for (int i = 0; i < n && xid <= xidCounter; i++, xid++) {
+                    byte status = buf.get(i);
+                    if (status != FIELD_TRAN_ACTIVE) {
+                        statuses.set(xid, status);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
     // 根据事务xid取得其在xid文件中对应 “开始” 的位置
     private long getXidPosition(long xid) {
         return LEN_XID_HEADER_LENGTH + (xid - 1) * XID_FIELD_SIZE;
     }
 
-    // 更新xid事务的状态为status
+    /**
+     * 更新xid事务的状态为status，写入文件后再更新内存中的状态
+     * 这里不落盘：提交和撤销的持久化由日志中的提交、撤销记录保证，状态位在检查点时统一落盘，崩溃后由恢复补上
+     */
     private void updateXID(long xid, byte status) {
         long offset = getXidPosition(xid);
         byte[] tmp = new byte[XID_FIELD_SIZE];
         tmp[0] = status;
         ByteBuffer buf = ByteBuffer.wrap(tmp);
         try {
-            fc.position(offset);
-            fc.write(buf);//写入通道
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-        try {
-            fc.force(false);//写入磁盘文件
+            fc.write(buf, offset);//写入通道，按位置写，不和其他线程共用通道的读写位置
         } catch (IOException e) {
             Panic.panic(e);
         }
+        statuses.set(xid, status);
     }
 
-    // 将XID加一，并更新XID Header
-    private void incrXIDCounter() {
-        xidCounter++;
-        ByteBuffer buf = ByteBuffer.wrap(Parser.long2Byte(xidCounter));//将xidcount 转换成字节数组
-        try {
-            fc.position(0);
-            fc.write(buf);
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
+    // 再分配一块 xid：文件末尾扩展一块全为 active 的状态位，文件头推进到块末尾，一起落盘
+    private void allocateXIDBlock() {
+        long limit = xidLimit + XID_BLOCK;
         try {
+            fc.write(ByteBuffer.allocate(XID_BLOCK * XID_FIELD_SIZE), getXidPosition(xidLimit + 1));
+            fc.write(ByteBuffer.wrap(Parser.long2Byte(limit)), 0);
             fc.force(false);
         } catch (IOException e) {
             Panic.panic(e);
         }
+        xidLimit = limit;
     }
 
-    // 开始一个事务，更新状态位执行状态 并返回XID
+    // 开始一个事务 并返回XID，新分配的状态位已经是执行状态，当前块用完时才写文件
     public long begin() {
         counterLock.lock();//加锁
         try {
-            long xid = xidCounter + 1;
-            updateXID(xid, FIELD_TRAN_ACTIVE);
-            incrXIDCounter();
-            return xid;
+            if (xidCounter == xidLimit) {
+                allocateXIDBlock();
+            }
+            return ++xidCounter;
         } finally {
             counterLock.unlock();
         }
@@ -144,17 +171,18 @@ public class TransactionManagerImpl implements TransactionManager {
         updateXID(xid, FIELD_TRAN_ABORTED);
     }
 
-    // 检测XID事务是否处于status状态
-    private boolean checkXID(long xid, byte status) {
-        long offset = getXidPosition(xid);
-        ByteBuffer buf = ByteBuffer.wrap(new byte[XID_FIELD_SIZE]);
+    // 把之前写入的状态位落盘
+    public void flush() {
         try {
-            fc.position(offset);
-            fc.read(buf);
+            fc.force(false);
         } catch (IOException e) {
             Panic.panic(e);
         }
-        return buf.array()[0] == status;
+    }
+
+    // 检测XID事务是否处于status状态，只查内存中的状态表，不访问磁盘
+    private boolean checkXID(long xid, byte status) {
+        return statuses.get(xid) == status;
     }
 
     /**
@@ -177,7 +205,19 @@ public class TransactionManagerImpl implements TransactionManager {
         return checkXID(xid, FIELD_TRAN_ABORTED);
     }
 
+    // 关闭时文件头和文件长度退回到实际用到的 xid，块中剩下的 xid 下次启动后还能分配
     public void close() {
+        counterLock.lock();
+        try {
+            fc.write(ByteBuffer.wrap(Parser.long2Byte(xidCounter)), 0);
+            fc.truncate(getXidPosition(xidCounter + 1));
+            fc.force(false);
+            xidLimit = xidCounter;
+        } catch (IOException e) {
+            Panic.panic(e);
+        } finally {
+            counterLock.unlock();
+        }
         try {
             fc.close();//关闭通道
             file.close();//关闭文件
@@ -0,0 +1,75 @@
+package top.guoziyang.mydb.backend.tm;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 内存中的事务状态表，XID 文件的完整副本
+ * 每个事务的状态占 2 位，一个 long 存 32 个事务，每页 65536 个事务，按需分配
+ * <p>
+ * 查询不加锁：读 volatile 的页目录，再读页内的一个 long；
+ * 修改状态用 CAS 更新所在的 long，不同事务同时提交也不会互相覆盖；
+ * 新增页时复制一份目录再发布，已发布的目录不会再被修改
+ * <p>
+ * 没有分配页的事务状态为 0，也就是 active，和 XID 文件中刚 begin 的事务一致
+ */
+class XidStatusTable {
+
+    private static final int BITS_PER_XID = 2;
+    private static final int XIDS_PER_LONG = Long.SIZE / BITS_PER_XID;
+    private static final int PAGE_SHIFT = 16;
+    private static final int XIDS_PER_PAGE = 1 << PAGE_SHIFT;
+    private static final int LONGS_PER_PAGE = XIDS_PER_PAGE / XIDS_PER_LONG;
+    private static final long STATUS_MASK = (1L << BITS_PER_XID) - 1;
+
+    private volatile AtomicLongArray[] pages = new AtomicLongArray[0];
+
+    byte get(long xid) {
+        AtomicLongArray[] dir = pages;
+        long pgno = xid >>> PAGE_SHIFT;
+        if (pgno >= dir.length || dir[(int) pgno] == null) {
+            return 0;
+        }
+        int idx = (int) (xid & (XIDS_PER_PAGE - 1));
+        long word = dir[(int) pgno].get(idx / XIDS_PER_LONG);
+        return (byte) ((word >>> shift(idx)) & STATUS_MASK);
+    }
+
+    void set(long xid, byte status) {
+        AtomicLongArray page = page((int) (xid >>> PAGE_SHIFT));
+        int idx = (int) (xid & (XIDS_PER_PAGE - 1));
+        int i = idx / XIDS_PER_LONG;
+        int shift = shift(idx);
+        while (true) {
+            long word = page.get(i);
+            long updated = (word & ~(STATUS_MASK << shift)) | ((long) status << shift);
+            if (page.compareAndSet(i, word, updated)) {
+                return;
+            }
+        }
+    }
+
+    private static int shift(int idx) {
+        return (idx % XIDS_PER_LONG) * BITS_PER_XID;
+    }
+
+    private AtomicLongArray page(int pgno) {
+        AtomicLongArray[] dir = pages;
+        if (pgno < dir.length && dir[pgno] != null) {
+            return dir[pgno];
+        }
+        synchronized (this) {
+            dir = pages;
+            if (pgno >= dir.length) {
+                dir = Arrays.copyOf(dir, Math.max(pgno + 1, dir.length * 2));
+            } else if (dir[pgno] == null) {
+                dir = dir.clone();
+            } else {
+                return dir[pgno];
+            }
+            dir[pgno] = new AtomicLongArray(LONGS_PER_PAGE);
+            pages = dir;
+            return dir[pgno];
+        }
+    }
+}
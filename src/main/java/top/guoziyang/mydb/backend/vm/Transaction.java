@@ -9,6 +9,7 @@ import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
 public class Transaction {
     public long xid;
     public int level;
+    public boolean async;     // 提交时不等待提交日志落盘
     public Map<Long, Boolean> snapshot;
     public Exception err;
     public boolean autoAborted;
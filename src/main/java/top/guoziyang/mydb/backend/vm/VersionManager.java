@@ -9,6 +9,7 @@ public interface VersionManager {
     boolean delete(long xid, long uid) throws Exception;
 
     long begin(int level);
+    long begin(int level, boolean async);
     void commit(long xid) throws Exception;
     void abort(long xid);
 
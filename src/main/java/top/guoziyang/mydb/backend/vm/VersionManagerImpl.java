@@ -133,11 +133,20 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
 
     @Override
     public long begin(int level) {
+        return begin(level, false);
+    }
+
+    @Override
+    public long begin(int level, boolean async) {
         lock.lock();
         try {
             long xid = tm.begin();
             Transaction t = Transaction.newTransaction(xid, level, activeTransaction);
+            t.async = async;
             activeTransaction.put(xid, t);
+            if(async) {
+                dm.beginAsync(xid);
+            }
             return xid;
         } finally {
             lock.unlock();
@@ -160,6 +169,14 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
             Panic.panic(n);
         }
 
+        // 提交日志落盘即提交成功，之后才释放锁
+        // 异步提交的事务不等待落盘，之后其他事务的提交日志落盘时它的提交日志也已落盘
+        if(t.async) {
+            dm.logCommitAsync(xid);
+        } else {
+            dm.logCommit(xid);
+        }
+
         lock.lock();
         activeTransaction.remove(xid);
         lock.unlock();
@@ -182,6 +199,8 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         lock.unlock();
 
         if(t.autoAborted) return;
+        // 撤销日志写在释放锁之前，其他事务随后对同一条记录的修改都在它之后
+        dm.logAbort(xid);
         lt.remove(xid);
         tm.abort(xid);
     }
@@ -6,6 +6,7 @@ public class Error {
     public static final Exception FileExistsException = new RuntimeException("File already exists!");
     public static final Exception FileNotExistsException = new RuntimeException("File does not exists!");
     public static final Exception FileCannotRWException = new RuntimeException("File cannot read or write!");
+    public static final Exception FileInUseException = new RuntimeException("File is already opened!");
 
     // dm
     public static final Exception BadLogFileException = new RuntimeException("Bad log file!");
@@ -21,6 +22,10 @@ public class Error {
     public static final Exception ConcurrentUpdateException = new RuntimeException("Concurrent update issue!");
     public static final Exception NullEntryException = new RuntimeException("Null entry!");
 
+    // im
+    public static final Exception InvalidFanoutException = new RuntimeException("Invalid B+ tree fan-out!");
+    public static final Exception BulkLoadUnsortedException = new RuntimeException("Bulk load keys are not sorted!");
+
     // tbm
     public static final Exception InvalidFieldException = new RuntimeException("Invalid field type!");
     public static final Exception FieldNotFoundException = new RuntimeException("Field not found!");
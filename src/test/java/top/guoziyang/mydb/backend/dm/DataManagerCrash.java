@@ -0,0 +1,17 @@
+package top.guoziyang.mydb.backend.dm;
+
+import top.guoziyang.mydb.backend.dm.logger.LoggerCrash;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCacheCrash;
+
+/**
+ * 测试中模拟崩溃：停止后台线程，放弃 DataManager 打开的文件，缓存中的页面不写回，
+ * 之后可以像崩溃重启一样重新打开同一个数据库
+ */
+public class DataManagerCrash {
+    public static void crash(DataManager dm) {
+        DataManagerImpl dmi = (DataManagerImpl) dm;
+        dmi.stopBackground();
+        PageCacheCrash.abandon(dmi.pc);
+        LoggerCrash.abandon(dmi.logger);
+    }
+}
@@ -14,6 +14,10 @@ import org.junit.Test;
 
 import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
+import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.dm.page.PageOne;
+import top.guoziyang.mydb.backend.dm.page.PageX;
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
 import top.guoziyang.mydb.backend.tm.MockTransactionManager;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
@@ -110,6 +114,7 @@ public class DataManagerTest {
 
         new File("/tmp/TESTDMSingle.db").delete();
         new File("/tmp/TESTDMSingle.log").delete();
+        new File("/tmp/TESTDMSingle.fsm").delete();
     }
 
     @Test
@@ -130,6 +135,7 @@ public class DataManagerTest {
 
         new File("/tmp/TestDMMulti.db").delete();
         new File("/tmp/TestDMMulti.log").delete();
+        new File("/tmp/TestDMMulti.fsm").delete();
     }
 
     @Test
@@ -150,12 +156,314 @@ public class DataManagerTest {
                 new Thread(r).run();
             }
             cdl.await();
+            if(i < 7) {
+                // 不关闭直接重新打开，模拟崩溃
+                DataManagerCrash.crash(dm0);
+            }
         }
         dm0.close(); mdm.close();
         
         new File("/tmp/TestRecoverySimple.db").delete();
         new File("/tmp/TestRecoverySimple.log").delete();
         new File("/tmp/TestRecoverySimple.xid").delete();
+        new File("/tmp/TestRecoverySimple.fsm").delete();
+
+    }
+
+    @Test
+    public void testFreeSpaceMap() throws Exception {
+        String path = "/tmp/TestFreeSpaceMap";
+        TransactionManager tm0 = new MockTransactionManager();
+        DataManager dm0 = DataManager.create(path, PageCache.PAGE_SIZE*10, tm0);
+        int maxPgno = 0;
+        for(int i = 0; i < 100; i ++) {
+            long uid = dm0.insert(0, RandomUtil.randomBytes(200));
+            maxPgno = Math.max(maxPgno, (int)(uid >>> 32));
+        }
+        dm0.close();
+        assert new File(path + ".fsm").exists();
+
+        // 正常关闭后从空闲空间表载入，小数据仍然插入已有的页面
+        dm0 = DataManager.open(path, PageCache.PAGE_SIZE*10, tm0);
+        long uid = dm0.insert(0, RandomUtil.randomBytes(8));
+        assert (int)(uid >>> 32) <= maxPgno;
+        dm0.close();
+
+        // 空闲空间表缺失时退回全量扫描
+        assert new File(path + ".fsm").delete();
+        dm0 = DataManager.open(path, PageCache.PAGE_SIZE*10, tm0);
+        uid = dm0.insert(0, RandomUtil.randomBytes(8));
+        assert (int)(uid >>> 32) <= maxPgno;
+        dm0.close();
+
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".fsm").delete();
+    }
+
+    @Test
+    public void testRecoverFromCheckpoint() throws Exception {
+        String path = "/tmp/TestRecoverCheckpoint";
+        TransactionManager tm0 = new MockTransactionManager();
+        DataManagerImpl dm0 = (DataManagerImpl) DataManager.create(path, PageCache.PAGE_SIZE*10, tm0);
+        List<Long> uids = new ArrayList<>();
+        List<byte[]> datas = new ArrayList<>();
+        for(int i = 0; i < 200; i ++) {
+            byte[] data = RandomUtil.randomBytes(100);
+            uids.add(dm0.insert(0, data));
+            datas.add(data);
+        }
+        dm0.checkpoint();
+        assert PageOne.getCheckpoint(dm0.pageOne) > 0;
+        for(int i = 0; i < 200; i ++) {
+            byte[] data = RandomUtil.randomBytes(100);
+            uids.add(dm0.insert(0, data));
+            datas.add(data);
+        }
+
+        // 不关闭直接重新打开，模拟崩溃后从检查点恢复
+        DataManagerCrash.crash(dm0);
+        DataManager dm1 = DataManager.open(path, PageCache.PAGE_SIZE*10, tm0);
+        for(int i = 0; i < uids.size(); i ++) {
+            DataItem di = dm1.read(uids.get(i));
+            assert di != null;
+            SubArray sa = di.data();
+            assert Arrays.equals(datas.get(i), Arrays.copyOfRange(sa.raw, sa.start, sa.end));
+            di.release();
+        }
+        dm1.close();
+
+        new File(path + ".db").delete();
+        Logger.delete(path);
+        new File(path + ".fsm").delete();
+    }
+
+    @Test
+    public void testRecoverRedoAndUndo() throws Exception {
+        String path = "/tmp/TestRecoverRedoAndUndo";
+        TransactionManager tm0 = TransactionManager.create(path);
+        DataManagerImpl dm0 = (DataManagerImpl) DataManager.create(path, PageCache.PAGE_SIZE*10, tm0);
+        // 已提交的事务写满几十页，恢复时按页并行重做
+        long committed = tm0.begin();
+        List<Long> uids = new ArrayList<>();
+        List<byte[]> datas = new ArrayList<>();
+        for(int i = 0; i < 2000; i ++) {
+            byte[] data = RandomUtil.randomBytes(200);
+            uids.add(dm0.insert(committed, data));
+            datas.add(data);
+        }
+        // 提交日志已经落盘，状态位还没有写入，恢复时按日志补上
+        dm0.logCommit(committed);
+        // 未提交的事务：插入一条记录，并修改一条已提交的记录
+        long active = tm0.begin();
+        long inserted = dm0.insert(active, RandomUtil.randomBytes(200));
+        DataItem di = dm0.read(uids.get(0));
+        di.before();
+        SubArray sa = di.data();
+        Arrays.fill(sa.raw, sa.start, sa.end, (byte)0);
+        di.after(active);
+        di.release();
+
+        // 不关闭直接重新打开，模拟崩溃
+        DataManagerCrash.crash(dm0);
+        TransactionManager tm1 = TransactionManager.open(path);
+        DataManager dm1 = DataManager.open(path, PageCache.PAGE_SIZE*10, tm1);
+        assert tm1.isCommitted(committed);
+        assert tm1.isAborted(active);
+        assert dm1.read(inserted) == null;
+        for(int i = 0; i < uids.size(); i ++) {
+            di = dm1.read(uids.get(i));
+            assert di != null;
+            sa = di.data();
+            assert Arrays.equals(datas.get(i), Arrays.copyOfRange(sa.raw, sa.start, sa.end));
+            di.release();
+        }
+        dm1.close();
+        tm1.close();
+
+        new File(path + ".db").delete();
+        Logger.delete(path);
+        new File(path + ".xid").delete();
+        new File(path + ".fsm").delete();
+    }
+
+    @Test
+    public void testFuzzyCheckpoint() throws Exception {
+        String path = "/tmp/TestFuzzyCheckpoint";
+        TransactionManager tm0 = TransactionManager.create(path);
+        DataManagerImpl dm0 = (DataManagerImpl) DataManager.create(path, PageCache.PAGE_SIZE*100, tm0);
+        long committed = tm0.begin();
+        List<Long> uids = new ArrayList<>();
+        List<byte[]> datas = new ArrayList<>();
+        for(int i = 0; i < 400; i ++) {
+            byte[] data = RandomUtil.randomBytes(200);
+            uids.add(dm0.insert(committed, data));
+            datas.add(data);
+        }
+        dm0.logCommit(committed);
+        // 后台线程已经把这些页面写回，检查点之前的日志不需要重做
+        dm0.pc.flushDirtyPages();
+        Page pg = dm0.pc.getPage((int)(uids.get(0) >>> 32));
+        assert PageX.getPageLsn(pg) > 0;
+        pg.release();
+
+        // 检查点时仍在进行的事务，修改的页面还是脏页
+        long active = tm0.begin();
+        long inserted = dm0.insert(active, RandomUtil.randomBytes(200));
+        DataItem di = dm0.read(uids.get(0));
+        di.before();
+        SubArray sa = di.data();
+        Arrays.fill(sa.raw, sa.start, sa.end, (byte)0);
+        di.after(active);
+        di.release();
+        dm0.checkpoint();
+        assert PageOne.getCheckpoint(dm0.pageOne) > 0;
+        assert !dm0.pc.dirtyPages().isEmpty();
+
+        long after = tm0.begin();
+        for(int i = 0; i < 100; i ++) {
+            byte[] data = RandomUtil.randomBytes(200);
+            uids.add(dm0.insert(after, data));
+            datas.add(data);
+        }
+        dm0.logCommit(after);
+
+        // 不关闭直接重新打开，模拟崩溃
+        DataManagerCrash.crash(dm0);
+        TransactionManager tm1 = TransactionManager.open(path);
+        DataManager dm1 = DataManager.open(path, PageCache.PAGE_SIZE*100, tm1);
+        assert tm1.isCommitted(committed);
+        assert tm1.isAborted(active);
+        assert tm1.isCommitted(after);
+        assert dm1.read(inserted) == null;
+        for(int i = 0; i < uids.size(); i ++) {
+            di = dm1.read(uids.get(i));
+            assert di != null;
+            sa = di.data();
+            assert Arrays.equals(datas.get(i), Arrays.copyOfRange(sa.raw, sa.start, sa.end));
+            di.release();
+        }
+        dm1.close();
+        tm1.close();
+
+        new File(path + ".db").delete();
+        Logger.delete(path);
+        new File(path + ".xid").delete();
+        new File(path + ".fsm").delete();
+    }
+
+    @Test
+    public void testAsyncCommit() throws Exception {
+        String path = "/tmp/TestAsyncCommit";
+        TransactionManager tm0 = TransactionManager.create(path);
+        DataManagerImpl dm0 = (DataManagerImpl) DataManager.create(path, PageCache.PAGE_SIZE*10, tm0);
+        long flushed = tm0.begin();
+        dm0.beginAsync(flushed);
+        byte[] data = RandomUtil.randomBytes(100);
+        long uid = dm0.insert(flushed, data);
+        dm0.logCommitAsync(flushed);
+        tm0.commit(flushed);
+        // 后台线程落盘之后，异步提交的事务和同步提交的一样不会丢失
+        dm0.logger.flush();
+        // 还没有落盘的异步提交可能丢失，但恢复后只能是已提交或已撤销
+        long pending = tm0.begin();
+        dm0.beginAsync(pending);
+        dm0.insert(pending, RandomUtil.randomBytes(100));
+        dm0.logCommitAsync(pending);
+        tm0.commit(pending);
+
+        // 不关闭直接重新打开，模拟崩溃
+        DataManagerCrash.crash(dm0);
+        TransactionManager tm1 = TransactionManager.open(path);
+        DataManager dm1 = DataManager.open(path, PageCache.PAGE_SIZE*10, tm1);
+        assert tm1.isCommitted(flushed);
+        assert tm1.isCommitted(pending) || tm1.isAborted(pending);
+        DataItem di = dm1.read(uid);
+        SubArray sa = di.data();
+        assert Arrays.equals(data, Arrays.copyOfRange(sa.raw, sa.start, sa.end));
+        di.release();
+        dm1.close();
+        tm1.close();
+
+        new File(path + ".db").delete();
+        Logger.delete(path);
+        new File(path + ".xid").delete();
+        new File(path + ".fsm").delete();
+    }
+
+    @Test
+    public void testRecoverOutcomesFromLog() throws Exception {
+        String path = "/tmp/TestRecoverOutcomesFromLog";
+        TransactionManager tm0 = TransactionManager.create(path);
+        DataManager dm0 = DataManager.create(path, PageCache.PAGE_SIZE*10, tm0);
+        long committed = tm0.begin();
+        byte[] data = RandomUtil.randomBytes(100);
+        long uid = dm0.insert(committed, data);
+        dm0.logCommit(committed);
+        long active = tm0.begin();
+        long inserted = dm0.insert(active, RandomUtil.randomBytes(100));
+
+        // 恢复只看日志中的开始、提交日志，不依赖事务管理器中的状态
+        DataManagerCrash.crash(dm0);
+        DataManager dm1 = DataManager.open(path, PageCache.PAGE_SIZE*10, new MockTransactionManager());
+        assert dm1.read(inserted) == null;
+        DataItem di = dm1.read(uid);
+        SubArray sa = di.data();
+        assert Arrays.equals(data, Arrays.copyOfRange(sa.raw, sa.start, sa.end));
+        di.release();
+        dm1.close();
+
+        new File(path + ".db").delete();
+        Logger.delete(path);
+        new File(path + ".xid").delete();
+        new File(path + ".fsm").delete();
+    }
+
+    @Test
+    public void testRecoverTwice() throws Exception {
+        String path = "/tmp/TestRecoverTwice";
+        TransactionManager tm0 = TransactionManager.create(path);
+        DataManager dm0 = DataManager.create(path, PageCache.PAGE_SIZE*10, tm0);
+        long xid = tm0.begin();
+        long uid = dm0.insert(xid, new byte[32]);
+        dm0.logCommit(xid);
+        tm0.commit(xid);
+        // 未完成的事务修改了这条记录，崩溃后被撤销
+        updateAll(dm0, tm0.begin(), uid, (byte)1);
+
+        DataManagerCrash.crash(dm0);
+        TransactionManager tm1 = TransactionManager.open(path);
+        DataManager dm1 = DataManager.open(path, PageCache.PAGE_SIZE*10, tm1);
+        xid = tm1.begin();
+        updateAll(dm1, xid, uid, (byte)2);
+        dm1.logCommit(xid);
+        tm1.commit(xid);
+
+        // 再次崩溃，上次撤销过的事务不能再撤销一遍，覆盖已提交的修改
+        DataManagerCrash.crash(dm1);
+        TransactionManager tm2 = TransactionManager.open(path);
+        DataManager dm2 = DataManager.open(path, PageCache.PAGE_SIZE*10, tm2);
+        DataItem di = dm2.read(uid);
+        SubArray sa = di.data();
+        for(int i = sa.start; i < sa.end; i ++) {
+            assert sa.raw[i] == 2;
+        }
+        di.release();
+        dm2.close();
+        tm2.close();
+
+        new File(path + ".db").delete();
+        Logger.delete(path);
+        new File(path + ".xid").delete();
+        new File(path + ".fsm").delete();
+    }
 
+    private void updateAll(DataManager dm, long xid, long uid, byte value) throws Exception {
+        DataItem di = dm.read(uid);
+        di.before();
+        SubArray sa = di.data();
+        Arrays.fill(sa.raw, sa.start, sa.end, value);
+        di.after(xid);
+        di.release();
     }
 }
@@ -51,6 +51,36 @@ public class MockDataManager implements DataManager {
         }
     }
 
+    @Override
+    public long reserve(int length) throws Exception {
+        return insert(0, new byte[length]);
+    }
+
+    @Override
+    public void insertReserved(long xid, long uid, byte[] data) throws Exception {
+        lock.lock();
+        try {
+            cache.put(uid, MockDataItem.newMockDataItem(uid, new SubArray(data, 0, data.length)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void logCommit(long xid) {}
+
+    @Override
+    public void beginAsync(long xid) {}
+
+    @Override
+    public void logCommitAsync(long xid) {}
+
+    @Override
+    public void logAbort(long xid) {}
+
+    @Override
+    public void setGroupCommit(long commitDelayMicros, int batchBytes) {}
+
     @Override
     public void close() {}
     
@@ -0,0 +1,10 @@
+package top.guoziyang.mydb.backend.dm.logger;
+
+/**
+ * 测试中模拟崩溃：放弃一个打开的日志，缓冲区中的日志不落盘，之后可以重新打开同一份日志
+ */
+public class LoggerCrash {
+    public static void abandon(Logger lg) {
+        ((LoggerImpl) lg).abandon();
+    }
+}
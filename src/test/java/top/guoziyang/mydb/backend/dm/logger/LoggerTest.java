@@ -1,9 +1,19 @@
 package top.guoziyang.mydb.backend.dm.logger;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Test;
 
+import com.google.common.primitives.Bytes;
+
+import top.guoziyang.mydb.backend.utils.Parser;
+
 public class LoggerTest {
     @Test
     public void testLogger() {
@@ -45,4 +55,221 @@ public class LoggerTest {
 
         assert new File("/tmp/logger_test.log").delete();
     }
+
+    @Test
+    public void testAppend() {
+        String path = "/tmp/logger_append_test";
+        Logger lg = Logger.create(path);
+        lg.append("aaa".getBytes());
+        lg.log("bbb".getBytes());      // 之前 append 的日志随它一起落盘
+        lg.append("ccc".getBytes());
+        lg.flush();
+        LoggerCrash.abandon(lg);
+
+        lg = Logger.open(path);
+        lg.rewind();
+        assert "aaa".equals(new String(lg.next()));
+        assert "bbb".equals(new String(lg.next()));
+        assert "ccc".equals(new String(lg.next()));
+        lg.append("ddd".getBytes());   // 由 close 落盘
+        lg.close();
+
+        lg = Logger.open(path);
+        lg.rewind();
+        for (String s : new String[]{"aaa", "bbb", "ccc", "ddd"}) {
+            byte[] log = lg.next();
+            assert log != null;
+            assert s.equals(new String(log));
+        }
+        assert lg.next() == null;
+        lg.close();
+
+        Logger.delete(path);
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        Logger lg = Logger.create("/tmp/logger_group_test", 4096);
+        lg.setGroupCommit(200, 4096);
+        int threads = 16, per = 50;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            new Thread(() -> {
+                for (int i = 0; i < per; i++) {
+                    lg.log((id + ":" + i).getBytes());
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        long end = lg.getEnd();
+        lg.close();
+
+        Logger lg2 = Logger.open("/tmp/logger_group_test", 4096);
+        assert lg2.getEnd() == end;
+        lg2.rewind();
+        Set<String> logs = new HashSet<>();
+        byte[] log;
+        while ((log = lg2.next()) != null) {
+            logs.add(new String(log));
+        }
+        lg2.close();
+        assert logs.size() == threads * per;
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < per; i++) {
+                assert logs.contains(t + ":" + i);
+            }
+        }
+
+        assert new File("/tmp/logger_group_test.log.2").exists();
+        Logger.delete("/tmp/logger_group_test");
+    }
+
+    @Test
+    public void testBadTail() throws Exception {
+        Logger lg = Logger.create("/tmp/logger_tail_test");
+        lg.log("aaa".getBytes());
+        lg.checkpoint(lg.getEnd());
+        lg.log("bbb".getBytes());
+        long end = lg.getEnd();
+        lg.close();
+
+        // 模拟崩溃：写了一半的日志
+        try (RandomAccessFile raf = new RandomAccessFile("/tmp/logger_tail_test.log", "rw")) {
+            raf.seek(raf.length());
+            raf.writeInt(100);
+            raf.writeInt(12345);
+            raf.write("cc".getBytes());
+        }
+
+        lg = Logger.open("/tmp/logger_tail_test");
+        assert lg.getEnd() == end;
+        lg.rewind();
+        assert "aaa".equals(new String(lg.next()));
+        assert "bbb".equals(new String(lg.next()));
+        assert lg.next() == null;
+        lg.close();
+
+        assert new File("/tmp/logger_tail_test.log").length() == end;
+        assert new File("/tmp/logger_tail_test.log").delete();
+    }
+
+    @Test
+    public void testUpgradeLegacyLog() throws Exception {
+        // 旧格式：[XChecksum] [Size] [Checksum] [Data] ...，末尾带一条不完整的日志
+        String[] logs = {"aaa", "bbb", "ccc"};
+        int xCheck = 0;
+        try (FileOutputStream out = new FileOutputStream("/tmp/logger_upgrade_test.log")) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            for (String l : logs) {
+                byte[] data = l.getBytes();
+                byte[] log = Bytes.concat(
+                        Parser.int2Byte(data.length), Parser.int2Byte(legacyChecksum(0, data)), data);
+                xCheck = legacyChecksum(xCheck, log);
+                body.write(log);
+            }
+            out.write(Parser.int2Byte(xCheck));
+            out.write(body.toByteArray());
+            out.write(Parser.int2Byte(50));
+        }
+
+        Logger lg = Logger.open("/tmp/logger_upgrade_test");
+        lg.rewind();
+        for (String l : logs) {
+            assert l.equals(new String(lg.next()));
+        }
+        assert lg.next() == null;
+        lg.log("ddd".getBytes());
+        lg.close();
+
+        lg = Logger.open("/tmp/logger_upgrade_test");
+        lg.rewind();
+        for (String l : logs) {
+            assert l.equals(new String(lg.next()));
+        }
+        assert "ddd".equals(new String(lg.next()));
+        assert lg.next() == null;
+        lg.close();
+
+        assert !new File("/tmp/logger_upgrade_test.log_upgrade").exists();
+        assert new File("/tmp/logger_upgrade_test.log").delete();
+    }
+
+    @Test
+    public void testSegments() {
+        String path = "/tmp/logger_segment_test";
+        Logger lg = Logger.create(path, 1024);
+        long[] lsns = new long[200];
+        for (int i = 0; i < lsns.length; i++) {
+            lsns[i] = lg.log(String.format("log-%04d-%040d", i, i).getBytes());
+        }
+        lg.close();
+        assert new File(path + ".log.5").exists();
+
+        // 重新打开后跨段顺序读出全部日志
+        lg = Logger.open(path, 1024);
+        lg.rewind();
+        for (int i = 0; i < lsns.length; i++) {
+            assert new String(lg.next()).startsWith(String.format("log-%04d-", i));
+        }
+        assert lg.next() == null;
+
+        // 检查点之前的整段被删除，之后的日志仍然可以读出
+        lg.checkpoint(lsns[150]);
+        assert !new File(path + ".log").exists();
+        lg.seek(lsns[150]);
+        assert new String(lg.next()).startsWith("log-0150-");
+        lg.rewind();
+        byte[] first = lg.next();
+        int from = Integer.parseInt(new String(first).substring(4, 8));
+        assert from <= 150;
+        for (int i = from + 1; i < lsns.length; i++) {
+            assert new String(lg.next()).startsWith(String.format("log-%04d-", i));
+        }
+        assert lg.next() == null;
+        long end = lg.log("tail".getBytes());
+        lg.close();
+
+        lg = Logger.open(path, 1024);
+        lg.seek(end);
+        assert "tail".equals(new String(lg.next()));
+        lg.close();
+
+        Logger.delete(path);
+        assert !new File(path + ".log.5").exists();
+    }
+
+    private static int legacyChecksum(int xCheck, byte[] log) {
+        for (byte b : log) {
+            xCheck = xCheck * 13331 + b;
+        }
+        return xCheck;
+    }
+
+    @Test
+    public void testReadByLsn() {
+        String path = "/tmp/logger_read_test";
+        Logger lg = Logger.create(path, 1024);
+        long[] lsns = new long[100];
+        for (int i = 0; i < lsns.length; i++) {
+            lsns[i] = lg.log(String.format("log-%04d-%040d", i, i).getBytes());
+        }
+        assert new File(path + ".log.2").exists();
+
+        // 按位置读出已封存段和当前段中的日志，不影响 next 的读取指针
+        lg.rewind();
+        for (int i = lsns.length - 1; i >= 0; i--) {
+            assert new String(lg.read(lsns[i])).startsWith(String.format("log-%04d-", i));
+        }
+        assert new String(lg.next()).startsWith("log-0000-");
+
+        // 被检查点删除的段读不出来
+        lg.checkpoint(lsns[90]);
+        assert lg.read(lsns[0]) == null;
+        assert new String(lg.read(lsns[90])).startsWith("log-0090-");
+        lg.close();
+
+        Logger.delete(path);
+    }
 }
@@ -32,11 +32,19 @@ public class MockPage implements Page {
     @Override
     public void setDirty(boolean dirty) {}
 
+    @Override
+    public void markDirty(long recLsn) {}
+
     @Override
     public boolean isDirty() {
         return false;
     }
 
+    @Override
+    public long getRecLsn() {
+        return 0;
+    }
+
     @Override
     public int getPageNumber() {
         return pgno;
@@ -54,5 +54,20 @@ public class MockPageCache implements PageCache {
 
     @Override
     public void flushPage(Page pg) {}
+
+    @Override
+    public long flushDirtyPages() {
+        return Long.MAX_VALUE;
+    }
     
+    @Override
+    public Map<Integer, Long> dirtyPages() {
+        return new HashMap<>();
+    }
+
+    @Override
+    public void setLogFlusher(Runnable flushLog) {}
+
+    @Override
+    public void prefetch(int pgno, int count) {}
 }
@@ -0,0 +1,10 @@
+package top.guoziyang.mydb.backend.dm.pageCache;
+
+/**
+ * 测试中模拟崩溃：放弃一个打开的页面缓存，不写回页面，之后可以重新打开同一个文件
+ */
+public class PageCacheCrash {
+    public static void abandon(PageCache pc) {
+        ((PageCacheImpl) pc).abandon();
+    }
+}
@@ -11,9 +11,13 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import org.junit.Test;
 
+import top.guoziyang.mydb.backend.common.ClockPolicy;
+import top.guoziyang.mydb.backend.common.LruPolicy;
+import top.guoziyang.mydb.backend.common.ReplacePolicy;
 import top.guoziyang.mydb.backend.dm.page.Page;
 import top.guoziyang.mydb.backend.utils.Panic;
 import top.guoziyang.mydb.backend.utils.RandomUtil;
+import top.guoziyang.mydb.common.Error;
 
 public class PageCacheTest {
 
@@ -43,6 +47,159 @@ public class PageCacheTest {
         assert new File("/tmp/pcacher_simple_test0.db").delete();
     }
 
+    @Test
+    public void testPageCacheTruncate() throws Exception {
+        PageCacheImpl pc = PageCache.create("/tmp/pcacher_truncate_test", PageCache.PAGE_SIZE * 50);
+        for(int i = 1; i <= 10; i ++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            tmp[0] = (byte)i;
+            int pgno = pc.newPage(tmp);
+            Page pg = pc.getPage(pgno);
+            pg.getData()[1] = (byte)99;
+            pg.setDirty(true);
+            pg.release();
+        }
+        // 截掉的页面虽然还常驻缓存且是脏页，也不能再被写回或取出
+        pc.truncateByBgno(5);
+        byte[] tmp = new byte[PageCache.PAGE_SIZE];
+        tmp[0] = (byte)100;
+        assert pc.newPage(tmp) == 6;
+        Page pg = pc.getPage(6);
+        assert pg.getData()[0] == (byte)100 && pg.getData()[1] == 0;
+        pg.release();
+        pc.close();
+        assert new File("/tmp/pcacher_truncate_test.db").length() == 6L * PageCache.PAGE_SIZE;
+
+        assert new File("/tmp/pcacher_truncate_test.db").delete();
+    }
+
+    @Test
+    public void testPageCacheMmap() throws Exception {
+        PageCache pc = PageCache.create("/tmp/pcacher_mmap_test", PageCache.PAGE_SIZE * 50, true);
+        for(int i = 0 ; i < 100; i ++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            tmp[0] = (byte)i;
+            int pgno = pc.newPage(tmp);
+            Page pg = pc.getPage(pgno);
+            pg.setDirty(true);
+            pg.getData()[1] = (byte)i;
+            pg.release();
+        }
+        pc.close();
+        assert new File("/tmp/pcacher_mmap_test.db").length() == 100L * PageCache.PAGE_SIZE;
+
+        pc = PageCache.open("/tmp/pcacher_mmap_test", PageCache.PAGE_SIZE * 50, true);
+        assert pc.getPageNumber() == 100;
+        for(int i = 1; i <= 100; i ++) {
+            Page pg = pc.getPage(i);
+            assert pg.getData()[0] == (byte)i-1;
+            assert pg.getData()[1] == (byte)i-1;
+            pg.release();
+        }
+        pc.close();
+
+        assert new File("/tmp/pcacher_mmap_test.db").delete();
+    }
+
+    @Test
+    public void testPageCacheReadAhead() throws Exception {
+        PageCache pc = PageCache.create("/tmp/pcacher_readahead_test", PageCache.PAGE_SIZE * 200);
+        for(int i = 0 ; i < 100; i ++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            tmp[0] = (byte)i;
+            pc.newPage(tmp);
+        }
+        pc.close();
+
+        PageCacheImpl pci = PageCache.open("/tmp/pcacher_readahead_test", PageCache.PAGE_SIZE * 200);
+        pci.prefetch(1, PageCache.READ_AHEAD);
+        // 预读按页号顺序放入缓存，窗口最后一页常驻时整个窗口都已读入
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!pci.isCached(PageCache.READ_AHEAD)) {
+            assert System.currentTimeMillis() < deadline;
+            Thread.sleep(1);
+        }
+        for(int i = 1; i <= 100; i ++) {
+            Page pg = pci.getPage(i);
+            assert pg.getData()[0] == (byte)i-1;
+            pg.release();
+            if(i == PageCache.READ_AHEAD) {
+                // 提示的窗口已经全部预读进缓存
+                assert pci.getMissCount() == 0;
+            }
+        }
+        pci.close();
+
+        assert new File("/tmp/pcacher_readahead_test.db").delete();
+    }
+
+    @Test
+    public void testPageCacheClock() throws Exception {
+        // 第 1 页命中后仍然在第二圈最先被扫到，CLOCK 驱逐第 1 页
+        assert evictOne("/tmp/pcacher_clock_test", new ClockPolicy(10)) == 1;
+    }
+
+    @Test
+    public void testPageCacheLru() throws Exception {
+        // 第 1 页刚被命中，LRU 驱逐最久未访问的第 3 页
+        assert evictOne("/tmp/pcacher_lru_test", new LruPolicy()) == 3;
+    }
+
+    /**
+     * 10 页的缓存装满未被引用的页面后命中第 1 页，再读入第 12 页，返回被驱逐的页号
+     * 按非顺序的页号读入，不触发预读
+     */
+    private int evictOne(String path, ReplacePolicy policy) throws Exception {
+        PageCache pc = PageCache.create(path, PageCache.PAGE_SIZE * 12);
+        for(int i = 0; i < 12; i ++) {
+            pc.newPage(new byte[PageCache.PAGE_SIZE]);
+        }
+        pc.close();
+
+        PageCacheImpl pci = PageCache.open(path, PageCache.PAGE_SIZE * 10, false, policy);
+        int[] order = {1, 3, 5, 7, 9, 2, 4, 6, 8, 10};
+        for(int pgno : order) {
+            pci.getPage(pgno).release();
+        }
+        pci.getPage(1).release();
+        assert pci.getMissCount() == 10 && pci.getHitCount() == 1 && pci.getEvictionCount() == 0;
+
+        // 缓存已满但页面都未被引用，驱逐一页而不是抛出 CacheFullException
+        pci.getPage(12).release();
+        assert pci.getMissCount() == 11 && pci.getEvictionCount() == 1;
+
+        int evicted = 0;
+        for(int pgno : order) {
+            long misses = pci.getMissCount();
+            Page pg = pci.getPage(pgno);
+            if(pci.getMissCount() > misses) {
+                evicted = pgno;
+                pg.release();
+                break;
+            }
+            pg.release();
+        }
+
+        // 页面全部被引用时才会抛出 CacheFullException
+        Page[] pinned = new Page[10];
+        for(int i = 0; i < 10; i ++) {
+            pinned[i] = pci.getPage(order[i]);
+        }
+        try {
+            pci.getPage(11);
+            assert false;
+        } catch (Exception e) {
+            assert e == Error.CacheFullException;
+        }
+        for(Page pg : pinned) {
+            pg.release();
+        }
+        pci.close();
+
+        assert new File(path + ".db").delete();
+        return evicted;
+    }
+
     private PageCache pc1;
     private CountDownLatch cdl1;
     private AtomicInteger noPages1;
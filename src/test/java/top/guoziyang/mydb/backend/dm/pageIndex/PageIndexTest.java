@@ -23,4 +23,16 @@ public class PageIndexTest {
             }
         }
     }
+
+    @Test
+    public void testPageIndexPreferRecent() {
+        PageIndex pIndex = new PageIndex(true);
+        for(int i = 1; i <= 3; i ++) {
+            pIndex.add(i, PageCache.PAGE_SIZE / 2);
+        }
+        assert pIndex.select(100).pgno == 3;
+        pIndex.add(3, PageCache.PAGE_SIZE / 2);
+        assert pIndex.select(100).pgno == 3;
+        assert pIndex.select(100).pgno == 2;
+    }
 }
@@ -1,11 +1,19 @@
 package top.guoziyang.mydb.backend.im;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
 import top.guoziyang.mydb.backend.dm.DataManager;
+import top.guoziyang.mydb.backend.dm.DataManagerCrash;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
 import top.guoziyang.mydb.backend.tm.MockTransactionManager;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
@@ -31,6 +39,265 @@ public class BPlusTreeTest {
         }
 
         assert new File("/tmp/TestTreeSingle.db").delete();
-        assert new File("/tmp/TestTreeSingle.log").delete();
+        Logger.delete("/tmp/TestTreeSingle");
+    }
+
+    @Test
+    public void testTreeRange() throws Exception {
+        TransactionManager tm = new MockTransactionManager();
+        DataManager dm = DataManager.create("/tmp/TestTreeRange", PageCache.PAGE_SIZE*10, tm);
+
+        long root = BPlusTree.create(dm);
+        BPlusTree tree = BPlusTree.load(root, dm);
+
+        // 乱序插入偶数键，查找落在键之间和键上的位置
+        int lim = 5000;
+        List<Long> keys = new ArrayList<>();
+        for(long i = 0; i < lim; i ++) {
+            keys.add(i * 2);
+        }
+        Collections.shuffle(keys, new Random(1));
+        for(long key : keys) {
+            tree.insert(key, key);
+        }
+
+        for(int i = 0; i < lim * 2; i ++) {
+            List<Long> uids = tree.search(i);
+            if(i % 2 == 0) {
+                assert uids.size() == 1 && uids.get(0) == i;
+            } else {
+                assert uids.isEmpty();
+            }
+        }
+        List<Long> uids = tree.searchRange(101, 301);
+        assert uids.size() == 100;
+        for(int i = 0; i < uids.size(); i ++) {
+            assert uids.get(i) == 102 + 2 * i;
+        }
+        assert tree.searchRange(lim * 2, Long.MAX_VALUE).isEmpty();
+        assert tree.searchRange(0, Long.MAX_VALUE).size() == lim;
+
+        assert new File("/tmp/TestTreeRange.db").delete();
+        Logger.delete("/tmp/TestTreeRange");
+    }
+
+    @Test
+    public void testTreeFanout() throws Exception {
+        TransactionManager tm = new MockTransactionManager();
+        DataManager dm = DataManager.create("/tmp/TestTreeFanout", PageCache.PAGE_SIZE*10, tm);
+
+        long small = BPlusTree.create(dm);
+        long large = BPlusTree.create(dm, Node.MAX_BALANCE_NUMBER);
+        BPlusTree smallTree = BPlusTree.load(small, dm);
+        BPlusTree largeTree = BPlusTree.load(large, dm);
+
+        int lim = 20000;
+        for(int i = 0; i < lim; i ++) {
+            smallTree.insert(i, i);
+            largeTree.insert(i, i);
+        }
+        assert smallTree.depth() == 3;
+        assert largeTree.depth() == 2;
+
+        // 重新加载时从根节点的长度得到扇出
+        largeTree = BPlusTree.load(large, dm);
+        for(int i = lim; i < lim * 2; i ++) {
+            largeTree.insert(i, i);
+        }
+        for(int i = 0; i < lim * 2; i ++) {
+            List<Long> uids = largeTree.search(i);
+            assert uids.size() == 1 && uids.get(0) == i;
+        }
+        assert largeTree.searchRange(0, Long.MAX_VALUE).size() == lim * 2;
+
+        try {
+            BPlusTree.create(dm, Node.MAX_BALANCE_NUMBER + 1);
+            assert false;
+        } catch(RuntimeException e) {
+            assert e == top.guoziyang.mydb.common.Error.InvalidFanoutException;
+        }
+
+        assert new File("/tmp/TestTreeFanout.db").delete();
+        Logger.delete("/tmp/TestTreeFanout");
+    }
+
+    @Test
+    public void testTreeScan() throws Exception {
+        TransactionManager tm = new MockTransactionManager();
+        DataManager dm = DataManager.create("/tmp/TestTreeScan", PageCache.PAGE_SIZE*10, tm);
+
+        long root = BPlusTree.create(dm);
+        BPlusTree tree = BPlusTree.load(root, dm);
+        int lim = 5000;
+        for(long i = 0; i < lim; i ++) {
+            tree.insert(i * 2, i * 2 + 1);
+        }
+
+        // 跨越多个叶子，键和 uid 一一对应
+        KeyUidStream cursor = tree.scan(101, 2001);
+        long expect = 102;
+        while(cursor.next()) {
+            assert cursor.key() == expect && cursor.uid() == expect + 1;
+            expect += 2;
+        }
+        assert expect == 2002;
+        assert !cursor.next();
+
+        // 只读前几个就停止
+        cursor = tree.scan(0, Long.MAX_VALUE);
+        for(int i = 0; i < 3; i ++) {
+            assert cursor.next() && cursor.key() == i * 2;
+        }
+
+        assert !tree.scan(lim * 2, Long.MAX_VALUE).next();
+        assert !tree.scan(5, 5).next();
+
+        cursor = KeyUidStream.concat(tree.scan(0, 2), tree.scan(10, 12));
+        long[] keys = {0, 2, 10, 12};
+        for(long key : keys) {
+            assert cursor.next() && cursor.key() == key;
+        }
+        assert !cursor.next();
+
+        assert new File("/tmp/TestTreeScan.db").delete();
+        Logger.delete("/tmp/TestTreeScan");
+    }
+
+    @Test
+    public void testTreeBulkLoad() throws Exception {
+        String path = "/tmp/TestTreeBulkLoad";
+        TransactionManager tm = new MockTransactionManager();
+        DataManager dm = DataManager.create(path, PageCache.PAGE_SIZE*10, tm);
+
+        int lim = 10000;
+        long root = BPlusTree.bulkLoad(dm, evenKeys(lim));
+        BPlusTree tree = BPlusTree.load(root, dm);
+        assert tree.depth() == 3;
+        assert BPlusTree.load(BPlusTree.bulkLoad(dm, evenKeys(0)), dm).search(0).isEmpty();
+        try {
+            BPlusTree.bulkLoad(dm, new ArrayStream(new long[] {2, 1}));
+            assert false;
+        } catch(RuntimeException e) {
+            assert e == top.guoziyang.mydb.common.Error.BulkLoadUnsortedException;
+        }
+
+        // 不关闭直接重新打开，模拟崩溃，节点都要从日志中恢复
+        DataManagerCrash.crash(dm);
+        DataManager dm1 = DataManager.open(path, PageCache.PAGE_SIZE*10, tm);
+        tree = BPlusTree.load(root, dm1);
+        for(int i = 0; i < lim * 2; i ++) {
+            List<Long> uids = tree.search(i);
+            if(i % 2 == 0) {
+                assert uids.size() == 1 && uids.get(0) == i;
+            } else {
+                assert uids.isEmpty();
+            }
+        }
+        // 装满的节点再插入时正常分裂
+        for(long i = 1; i < lim * 2; i += 2) {
+            tree.insert(i, i);
+        }
+        List<Long> uids = tree.searchRange(0, Long.MAX_VALUE);
+        assert uids.size() == lim * 2;
+        for(int i = 0; i < uids.size(); i ++) {
+            assert uids.get(i) == i;
+        }
+        dm1.close();
+
+        assert new File(path + ".db").delete();
+        Logger.delete(path);
+        new File(path + ".fsm").delete();
+    }
+
+    private static KeyUidStream evenKeys(int n) {
+        long[] keys = new long[n];
+        for(int i = 0; i < n; i ++) {
+            keys[i] = i * 2;
+        }
+        return new ArrayStream(keys);
+    }
+
+    // key 和 uid 相同
+    private static class ArrayStream implements KeyUidStream {
+        private final long[] keys;
+        private int pos = -1;
+
+        ArrayStream(long[] keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        public boolean next() {
+            return ++pos < keys.length;
+        }
+
+        @Override
+        public long key() {
+            return keys[pos];
+        }
+
+        @Override
+        public long uid() {
+            return keys[pos];
+        }
+    }
+
+    @Test
+    public void testTreeConcurrent() throws Exception {
+        TransactionManager tm = new MockTransactionManager();
+        DataManager dm = DataManager.create("/tmp/TestTreeConcurrent", PageCache.PAGE_SIZE*100, tm);
+
+        long root = BPlusTree.create(dm);
+        BPlusTree tree = BPlusTree.load(root, dm);
+
+        // 每个写线程插入自己的一段键，读线程一直查找已经插入完成的键
+        int writers = 4, perWriter = 5000;
+        AtomicIntegerArray done = new AtomicIntegerArray(writers);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for(int w = 0; w < writers; w ++) {
+            final int id = w;
+            threads.add(new Thread(() -> {
+                try {
+                    for(int i = 0; i < perWriter; i ++) {
+                        long key = (long)i * writers + id;
+                        tree.insert(key, key);
+                        done.set(id, i + 1);
+                    }
+                } catch(Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for(int r = 0; r < 2; r ++) {
+            threads.add(new Thread(() -> {
+                Random random = new Random();
+                try {
+                    while(!stop.get()) {
+                        int id = random.nextInt(writers);
+                        int n = done.get(id);
+                        if(n == 0) continue;
+                        long key = (long)random.nextInt(n) * writers + id;
+                        List<Long> uids = tree.search(key);
+                        if(uids.size() != 1 || uids.get(0) != key) {
+                            throw new AssertionError("key " + key + " got " + uids);
+                        }
+                    }
+                } catch(Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for(Thread t : threads) t.start();
+        for(int w = 0; w < writers; w ++) threads.get(w).join();
+        stop.set(true);
+        for(Thread t : threads) t.join();
+
+        assert failure.get() == null : failure.get();
+        assert tree.searchRange(0, Long.MAX_VALUE).size() == writers * perWriter;
+
+        assert new File("/tmp/TestTreeConcurrent.db").delete();
+        Logger.delete("/tmp/TestTreeConcurrent");
     }
 }
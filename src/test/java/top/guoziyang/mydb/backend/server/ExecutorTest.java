@@ -6,6 +6,7 @@ import java.util.concurrent.CountDownLatch;
 import org.junit.Test;
 
 import top.guoziyang.mydb.backend.dm.DataManager;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
 import top.guoziyang.mydb.backend.tbm.TableManager;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
 import top.guoziyang.mydb.backend.vm.VersionManager;
@@ -40,7 +41,7 @@ public class ExecutorTest {
         testInsert(exe, 10000, 1);
         new File(path + ".db").delete();
         new File(path + ".bt").delete();
-        new File(path + ".log").delete();
+        Logger.delete(path);
         new File(path + ".xid").delete();
     }
 
@@ -72,7 +73,7 @@ public class ExecutorTest {
         testMultiInsert(10000, 4);
         new File(path + ".db").delete();
         new File(path + ".bt").delete();
-        new File(path + ".log").delete();
+        Logger.delete(path);
         new File(path + ".xid").delete();
     }
 }
@@ -28,6 +28,9 @@ public class MockTransactionManager implements TransactionManager {
         return false;
     }
 
+    @Override
+    public void flush() {}
+
     @Override
     public void close() {}
     
@@ -90,4 +90,73 @@ public class TransactionManagerTest {
         }
         cdl.countDown();
     }
+
+    @Test
+    public void testReopen() {
+        TransactionManager tm = TransactionManager.create("/tmp/tranmger_reopen_test");
+        long[] xids = new long[300];
+        for(int i = 0; i < xids.length; i ++) {
+            xids[i] = tm.begin();
+            if(i % 3 == 1) tm.commit(xids[i]);
+            if(i % 3 == 2) tm.abort(xids[i]);
+        }
+        tm.close();
+
+        tm = TransactionManager.open("/tmp/tranmger_reopen_test");
+        for(int i = 0; i < xids.length; i ++) {
+            assert tm.isActive(xids[i]) == (i % 3 == 0);
+            assert tm.isCommitted(xids[i]) == (i % 3 == 1);
+            assert tm.isAborted(xids[i]) == (i % 3 == 2);
+        }
+        assert tm.isCommitted(TransactionManagerImpl.SUPER_XID);
+        tm.close();
+        // 正常关闭后文件只保留用到的 xid
+        assert new File("/tmp/tranmger_reopen_test.xid").length() == 8 + xids.length;
+        assert new File("/tmp/tranmger_reopen_test.xid").delete();
+    }
+
+    @Test
+    public void testXIDBlock() {
+        TransactionManager tm = TransactionManager.create("/tmp/tranmger_block_test");
+        long xid = 0;
+        for(int i = 0; i < 3; i ++) {
+            xid = tm.begin();
+        }
+        tm.commit(xid);
+        // 不关闭直接重新打开，模拟崩溃：块中没有用到的 xid 不再分配
+        TransactionManager tm1 = TransactionManager.open("/tmp/tranmger_block_test");
+        assert tm1.isCommitted(xid);
+        long next = tm1.begin();
+        assert next > xid + 1;
+        assert tm1.isActive(next);
+        tm1.close();
+
+        TransactionManager tm2 = TransactionManager.open("/tmp/tranmger_block_test");
+        assert tm2.begin() == next + 1;
+        tm2.close();
+        assert new File("/tmp/tranmger_block_test.xid").delete();
+    }
+
+    @Test
+    public void testStatusTable() throws InterruptedException {
+        XidStatusTable table = new XidStatusTable();
+        int threads = 8, per = 40000;
+        CountDownLatch done = new CountDownLatch(threads);
+        // 相邻的事务由不同线程修改，落在同一个 long 上，跨越多页
+        for(int t = 0; t < threads; t ++) {
+            final int id = t;
+            new Thread(() -> {
+                for(int i = 0; i < per; i ++) {
+                    long xid = (long)i * threads + id + 1;
+                    table.set(xid, (byte)(xid % 3));
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        for(long xid = 1; xid <= (long)threads * per; xid ++) {
+            assert table.get(xid) == xid % 3;
+        }
+        assert table.get((long)threads * per * 10) == 0;
+    }
 }